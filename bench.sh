@@ -0,0 +1,54 @@
+echo "Compiling Java sources and benchmarks..."
+mkdir -p out/bench
+javac -encoding UTF-8 -cp "lib/*" -d out/bench src/*.java bench/*.java || exit 1
+
+if [ "$1" = "footprint" ]; then
+    shift
+    echo "Measuring schedule memory footprint..."
+    java -XX:+UseSerialGC -Djava.awt.headless=true -cp "out/bench:lib/*" $BENCH_OPTS ScheduleFootprint "$@"
+    exit
+fi
+
+if [ "$1" = "requests" ]; then
+    shift
+    echo "Measuring channel selection latency during a refresh..."
+    java -Djava.awt.headless=true -cp "out/bench:lib/*" $BENCH_OPTS RequestLatency "$@"
+    exit
+fi
+
+if [ "$1" = "conditional" ]; then
+    shift
+    echo "Measuring bytes and parses saved by conditional requests..."
+    java -Djava.awt.headless=true -cp "out/bench:lib/*" $BENCH_OPTS ConditionalFetch "$@"
+    exit
+fi
+
+if [ "$1" = "flights" ]; then
+    shift
+    echo "Stress testing coalesced page fetches..."
+    java -Djava.awt.headless=true -cp "out/bench:lib/*" $BENCH_OPTS FlightStress "$@"
+    exit
+fi
+
+if [ "$1" = "edt" ]; then
+    shift
+    echo "Checking that the EDT watchdog ignores open modal dialogs..."
+    java -cp "out/bench:lib/*" $BENCH_OPTS EdtModalCheck "$@"
+    exit
+fi
+
+if [ "$1" = "scale" ]; then
+    shift
+    echo "Measuring ingestion at synthetic scales..."
+    java -Djava.awt.headless=true -cp "out/bench:lib/*" $BENCH_OPTS ScaleHarness "$@"
+    exit
+fi
+
+if [ "$1" = "generate" ]; then
+    shift
+    java -cp "out/bench:lib/*" SyntheticPayloads "$@"
+    exit
+fi
+
+echo "Running benchmarks..."
+java -Djava.awt.headless=true -cp "out/bench:lib/*" $BENCH_OPTS RadioPlanBenchmarks "$@"
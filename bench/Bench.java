@@ -0,0 +1,130 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+/**
+ * Minimal benchmark harness. Each benchmark is warmed up and then measured over a
+ * number of timed iterations on the calling thread. Reported per operation are the
+ * throughput, the time, the bytes allocated by the thread and the garbage collections
+ * that ran while measuring.
+ *
+ * Iteration counts and lengths are set with -Dbench.warmup, -Dbench.iterations and
+ * -Dbench.millis.
+ */
+public class Bench {
+
+    private static final int WARMUP_ITERATIONS = Integer.getInteger("bench.warmup", 3);
+    private static final int ITERATIONS = Integer.getInteger("bench.iterations", 5);
+    private static final long ITERATION_MILLIS = Long.getLong("bench.millis", 1000);
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static volatile int sink;     // Consumes results so the JIT cannot drop the work
+
+    /**
+     * A measured operation.
+     */
+    public interface Operation {
+
+        /**
+         * Runs the operation once.
+         *
+         * @return A result that is consumed by the harness.
+         * @throws Exception If the operation fails, which aborts the benchmark.
+         */
+        Object run() throws Exception;
+    }
+
+    private Bench() {
+    }
+
+    /**
+     * Prints the header of the result table.
+     */
+    public static void printHeader() {
+        System.out.println(String.format(Locale.ROOT, "%-36s %14s %10s %12s %12s %8s",
+                "Benchmark", "ops/s", "+-", "ns/op", "B/op", "GCs"));
+    }
+
+    /**
+     * Measures an operation.
+     *
+     * @param name      The name of the benchmark.
+     * @param batchSize The number of logical operations one run performs; results are per logical operation.
+     * @param operation The operation.
+     * @throws Exception If the operation fails.
+     */
+    public static void run(String name, int batchSize, Operation operation) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iteration(operation);
+        }
+        double[] throughput = new double[ITERATIONS];
+        long totalOps = 0;
+        long totalNanos = 0;
+        long totalBytes = 0;
+        long totalGcs = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long gcsBefore = gcCount();
+            long[] result = iteration(operation);
+            totalGcs += gcCount() - gcsBefore;
+            totalOps += result[0] * batchSize;
+            totalNanos += result[1];
+            totalBytes += result[2];
+            throughput[i] = result[0] * batchSize * 1e9 / result[1];
+        }
+
+        double mean = 0;
+        for (double value : throughput) {
+            mean += value;
+        }
+        mean /= throughput.length;
+        double variance = 0;
+        for (double value : throughput) {
+            variance += (value - mean) * (value - mean);
+        }
+        double deviation = throughput.length > 1 ? Math.sqrt(variance / (throughput.length - 1)) : 0;
+
+        System.out.println(String.format(Locale.ROOT, "%-36s %14.1f %10.1f %12.1f %12.1f %8d",
+                name, mean, deviation, (double) totalNanos / totalOps, (double) totalBytes / totalOps, totalGcs));
+    }
+
+    /**
+     * Runs the operation repeatedly for one iteration.
+     *
+     * @param operation The operation.
+     * @return The number of runs, the elapsed nanoseconds and the bytes allocated.
+     * @throws Exception If the operation fails.
+     */
+    private static long[] iteration(Operation operation) throws Exception {
+        long thread = Thread.currentThread().getId();
+        long deadline = System.nanoTime() + ITERATION_MILLIS * 1_000_000;
+        long bytesBefore = THREADS.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        long runs = 0;
+        long now;
+        int hash = 0;
+        do {
+            Object result = operation.run();
+            hash += result == null ? 0 : System.identityHashCode(result);
+            runs++;
+            now = System.nanoTime();
+        } while (now < deadline);
+        long bytes = THREADS.getThreadAllocatedBytes(thread) - bytesBefore;
+        sink += hash;
+        return new long[]{runs, now - start, bytes};
+    }
+
+    /**
+     * Sums the collection counts of all garbage collectors.
+     *
+     * @return The number of collections so far.
+     */
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+}
@@ -0,0 +1,160 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Measures how many bytes and parses conditional requests and compression save when the
+ * same schedules are refreshed repeatedly, and how many bodies the unchanged-payload hash
+ * finds unchanged. Those are parsed as they arrive, so their parse is not saved. A local
+ * stub server answers every schedule request with the same fixture, once with ETag,
+ * 304 Not Modified and gzip, and once as a plain server without validators or
+ * compression. The first refresh of each run is cold, the later ones are what the
+ * hourly refresh does. Run with bench.sh conditional.
+ */
+public class ConditionalFetch {
+
+    private static final int CHANNELS = 20;    // Channels in every refresh
+    private static final int REFRESHES = 3;    // Refreshes per server
+
+    private final byte[] schedule;     // Body of every stub response
+    private final byte[] gzipped;      // Body of every stub response, compressed
+    private final String etag;         // ETag of the body
+
+    /**
+     * Constructor to create the measurement.
+     *
+     * @param schedule The body of every stub response.
+     * @throws IOException If the body cannot be compressed.
+     */
+    private ConditionalFetch(byte[] schedule) throws IOException {
+        this.schedule = schedule;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(schedule);
+        }
+        this.gzipped = out.toByteArray();
+        this.etag = "\"" + Integer.toHexString(Arrays.hashCode(schedule)) + "\"";
+    }
+
+    /**
+     * Runs the measurement.
+     *
+     * @param args Not used.
+     * @throws Exception If the stub server cannot be started.
+     */
+    public static void main(String[] args) throws Exception {
+        File fixtures = new File(System.getProperty("bench.fixtures", "bench/fixtures"));
+        byte[] schedule = Files.readAllBytes(new File(fixtures, "scheduledepisodes-132-day.xml").toPath());
+        new ConditionalFetch(schedule).runAll();
+    }
+
+    /**
+     * Measures both servers.
+     *
+     * @throws Exception If the stub server cannot be started.
+     */
+    private void runAll() throws Exception {
+        int pages = -1;
+        System.out.printf("%d channels refreshed %d times, %d byte schedule page%n", CHANNELS, REFRESHES,
+                schedule.length);
+        for (boolean validators : new boolean[]{true, false}) {
+            System.out.printf("%n%s%n", validators ? "Server with ETag, 304 and gzip" : "Server without validators");
+            System.out.printf("%-10s %9s %16s %13s %6s %10s %8s%n",
+                    "Refresh", "Requests", "Bytes received", "Bytes saved", "304", "Unchanged", "Parsed");
+            pages = measure(validators);
+        }
+        System.out.printf("%nWithout conditional requests every refresh receives %d bytes and parses %d pages%n",
+                (long) pages * schedule.length, pages);
+    }
+
+    /**
+     * Refreshes the channels repeatedly against one kind of stub server.
+     *
+     * @param validators Whether the server supports validators and compression.
+     * @return The number of pages in a refresh.
+     * @throws Exception If the stub server cannot be started.
+     */
+    private int measure(boolean validators) throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> respond(exchange, validators));
+        server.setExecutor(Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "stub");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+        int port = server.getAddress().getPort();
+
+        ApiParser api = new ApiParser() {
+            @Override
+            public URL getScheduleUrl(int channelId, LocalDate date) throws MalformedURLException {
+                return new URL("http://127.0.0.1:" + port + "/v2/scheduledepisodes?channelid=" + channelId
+                        + "&date=" + date);
+            }
+        };
+        HttpFetcher fetcher = new HttpFetcher(new RequestScheduler(8, 2, 0, 8));
+        RefreshEngine engine = new RefreshEngine(api, new LiveScheduleSource(api, fetcher), fetcher.getScheduler(),
+                60_000, 0);
+        List<Channel> channels = new ArrayList<>();
+        for (int i = 0; i < CHANNELS; i++) {
+            channels.add(new Channel("Kanal " + i, 1000 + i, "Lokal kanal", null, null));
+        }
+
+        long[] before = new long[6];
+        for (int refresh = 1; refresh <= REFRESHES; refresh++) {
+            engine.refresh(channels, RequestScheduler.Priority.REFRESH);
+            long[] now = {fetcher.getRequestCount(), fetcher.getBytesReceived(), fetcher.getBytesSaved(),
+                    fetcher.getNotModifiedCount(), fetcher.getUnchangedCount(), engine.getParseCount()};
+            System.out.printf("%-10s %9d %16d %13d %6d %10d %8d%n", refresh == 1 ? "1 (cold)" : refresh,
+                    now[0] - before[0], now[1] - before[1], now[2] - before[2], now[3] - before[3],
+                    now[4] - before[4], now[5] - before[5]);
+            before = now;
+        }
+        fetcher.shutdown();
+        server.stop(0);
+        return (int) (fetcher.getRequestCount() / REFRESHES);
+    }
+
+    /**
+     * Answers a stub request with the fixture, or 304 when the server supports validators
+     * and the client already has the body.
+     *
+     * @param exchange   The request.
+     * @param validators Whether the server supports validators and compression.
+     * @throws IOException If the response cannot be sent.
+     */
+    private void respond(HttpExchange exchange, boolean validators) throws IOException {
+        byte[] body = schedule;
+        if (validators) {
+            exchange.getResponseHeaders().set("ETag", etag);
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if (accept != null && accept.contains("gzip")) {
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                body = gzipped;
+            }
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
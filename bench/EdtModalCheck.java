@@ -0,0 +1,153 @@
+import javax.swing.JDialog;
+import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
+import java.awt.EventQueue;
+import java.awt.GraphicsEnvironment;
+import java.awt.SecondaryLoop;
+import java.awt.Toolkit;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Checks that the EdtWatchdog records real blocking of the Event Dispatch Thread but not
+ * a modal dialog left open. With a display a modal dialog is opened; headless, where no
+ * window can be shown, the nested event loop that a modal dialog runs is entered directly
+ * through a SecondaryLoop. It also checks that the time the dialog waited is reported by
+ * getNestedWaitNanos, which the action timing leaves out. Run with bench.sh edt.
+ */
+public class EdtModalCheck {
+
+    private static final long THRESHOLD_MILLIS = 200;   // Stall threshold of the watchdog
+    private static final long OPEN_MILLIS = 1000;       // How long the dialog stays open
+    private static final long BLOCK_MILLIS = 500;       // How long a blocking event runs
+
+    private static int failures;    // Checks that failed
+
+    /**
+     * Runs the checks.
+     *
+     * @param args Not used.
+     * @throws Exception If the checks cannot run.
+     */
+    public static void main(String[] args) throws Exception {
+        EdtWatchdog watchdog = EdtWatchdog.install();
+        watchdog.setThresholdMillis(THRESHOLD_MILLIS);
+        boolean headless = GraphicsEnvironment.isHeadless();
+        System.out.println(headless ? "Headless: entering the nested event loop of a modal dialog directly"
+                : "Opening a modal dialog");
+
+        long before = watchdog.getStallCount();
+        long waitBefore = EdtWatchdog.getNestedWaitNanos();
+        openModal(headless, false, false);
+        report("Dialog left open for " + OPEN_MILLIS + " ms", watchdog.getStallCount() - before, 0);
+        long waitedMillis = (EdtWatchdog.getNestedWaitNanos() - waitBefore) / 1_000_000;
+        check("Nested wait of the dialog, " + waitedMillis + " ms", waitedMillis >= OPEN_MILLIS * 9 / 10);
+
+        before = watchdog.getStallCount();
+        openModal(headless, true, false);
+        report("Event blocking " + BLOCK_MILLIS + " ms while the dialog is open", watchdog.getStallCount() - before, 1);
+
+        before = watchdog.getStallCount();
+        openModal(headless, false, true);
+        report("Opening event blocking " + BLOCK_MILLIS + " ms after the dialog closed",
+                watchdog.getStallCount() - before, 1);
+
+        before = watchdog.getStallCount();
+        waitBefore = EdtWatchdog.getNestedWaitNanos();
+        SwingUtilities.invokeAndWait(() -> sleep(BLOCK_MILLIS));
+        report("Event blocking " + BLOCK_MILLIS + " ms without a dialog", watchdog.getStallCount() - before, 1);
+        waitedMillis = (EdtWatchdog.getNestedWaitNanos() - waitBefore) / 1_000_000;
+        check("Nested wait without a dialog, " + waitedMillis + " ms", waitedMillis == 0);
+
+        System.out.println(failures == 0 ? "\nAll checks passed" : "\n" + failures + " checks failed");
+        System.out.println(watchdog.dumpStalls());
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /**
+     * Opens a modal dialog from an event on the EDT, keeps it open and closes it again.
+     *
+     * @param headless      Whether to enter the nested event loop instead of showing a dialog.
+     * @param blockInside   Whether an event dispatched while the dialog is open blocks the EDT.
+     * @param blockAfter    Whether the opening event blocks the EDT after the dialog closed.
+     * @throws Exception If the dialog cannot be opened.
+     */
+    private static void openModal(boolean headless, boolean blockInside, boolean blockAfter) throws Exception {
+        CountDownLatch open = new CountDownLatch(1);
+        Runnable close;
+        if (headless) {
+            SecondaryLoop[] loop = new SecondaryLoop[1];
+            EventQueue.invokeLater(() -> {
+                loop[0] = Toolkit.getDefaultToolkit().getSystemEventQueue().createSecondaryLoop();
+                open.countDown();
+                loop[0].enter();
+                if (blockAfter) {
+                    sleep(BLOCK_MILLIS);
+                }
+            });
+            close = () -> loop[0].exit();
+        } else {
+            JDialog[] dialog = new JDialog[1];
+            EventQueue.invokeLater(() -> {
+                dialog[0] = new JOptionPane("Modal dialog left open").createDialog("EdtModalCheck");
+                dialog[0].setModal(true);
+                open.countDown();
+                dialog[0].setVisible(true);
+                if (blockAfter) {
+                    sleep(BLOCK_MILLIS);
+                }
+            });
+            close = () -> SwingUtilities.invokeLater(() -> dialog[0].dispose());
+        }
+        open.await();
+        Thread.sleep(OPEN_MILLIS / 2);
+        if (blockInside) {
+            SwingUtilities.invokeAndWait(() -> sleep(BLOCK_MILLIS));
+        }
+        Thread.sleep(OPEN_MILLIS / 2);
+        close.run();
+        // Wait until the opening event, and any blocking after the dialog, has finished
+        SwingUtilities.invokeAndWait(() -> { });
+        Thread.sleep(THRESHOLD_MILLIS);
+    }
+
+    /**
+     * Prints and checks the number of stalls recorded for a case.
+     *
+     * @param name     The case.
+     * @param stalls   The stalls recorded.
+     * @param expected The stalls expected.
+     */
+    private static void report(String name, long stalls, long expected) {
+        boolean passed = stalls == expected;
+        if (!passed) {
+            failures++;
+        }
+        System.out.printf("%-62s %d stalls, expected %d  %s%n", name, stalls, expected, passed ? "ok" : "FAILED");
+    }
+
+    /**
+     * Prints and checks a condition.
+     *
+     * @param name   The case.
+     * @param passed Whether it holds.
+     */
+    private static void check(String name, boolean passed) {
+        if (!passed) {
+            failures++;
+        }
+        System.out.printf("%-62s %s%n", name, passed ? "ok" : "FAILED");
+    }
+
+    /**
+     * Blocks the calling thread.
+     *
+     * @param millis The time to block.
+     */
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
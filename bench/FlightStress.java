@@ -0,0 +1,158 @@
+import java.io.File;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stress test of the coalescing of page fetches. It first fires many concurrent callers
+ * at a few keys of a SingleFlight and checks that exactly one load runs per key and that
+ * every caller gets its value. It then refreshes channels whose pages answer slower than
+ * the refresh deadline and checks that the abandoned fetches free their workers and
+ * leave the queue, so the deadline also bounds the work. Run with bench.sh flights.
+ */
+public class FlightStress {
+
+    private static final int ROUNDS = 20;          // Rounds of concurrent callers
+    private static final int CALLERS = 64;         // Concurrent callers per round
+    private static final int KEYS = 4;             // Keys the callers spread over
+    private static final long SLOW_MILLIS = 3000;  // Latency of every page in the deadline test
+    private static final long DEADLINE_MILLIS = 300;
+
+    private static int failures;    // Checks that failed
+
+    /**
+     * Runs the stress test.
+     *
+     * @param args Not used.
+     * @throws Exception If the test cannot run.
+     */
+    public static void main(String[] args) throws Exception {
+        coalescing();
+        deadline(4);
+        deadline(20);
+        System.out.println(failures == 0 ? "\nAll checks passed" : "\n" + failures + " checks failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Fires concurrent callers at a few keys and checks one load per key and round.
+     *
+     * @throws Exception If a caller fails.
+     */
+    private static void coalescing() throws Exception {
+        SingleFlight<Integer, String> flight = new SingleFlight<>("bench.flights");
+        ExecutorService callers = Executors.newFixedThreadPool(CALLERS);
+        ExecutorService loaders = Executors.newCachedThreadPool();
+        Counter loads = Metrics.counter("bench.flights.loads");
+        Counter shared = Metrics.counter("bench.flights.shared");
+        int wrong = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            AtomicInteger calls = new AtomicInteger();
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < CALLERS; i++) {
+                int key = i % KEYS;
+                int r = round;
+                results.add(callers.submit(() -> {
+                    start.await();
+                    return flight.submit(key, () -> {
+                        calls.incrementAndGet();
+                        Thread.sleep(20);
+                        return r + "/" + key;
+                    }, loaders).get();
+                }));
+            }
+            start.countDown();
+            for (int i = 0; i < CALLERS; i++) {
+                if (!results.get(i).get().equals(round + "/" + (i % KEYS))) {
+                    wrong++;
+                }
+            }
+            check("round " + round + " loaded each key once", calls.get() == KEYS);
+        }
+        callers.shutdown();
+        loaders.shutdown();
+        System.out.printf("Coalescing: %d rounds of %d callers over %d keys, %d loads, %d shared, %d wrong values%n",
+                ROUNDS, CALLERS, KEYS, loads.getCount(), shared.getCount(), wrong);
+        check("loads equal keys times rounds", loads.getCount() == (long) KEYS * ROUNDS);
+        check("every caller got its value", wrong == 0);
+    }
+
+    /**
+     * Refreshes channels whose pages are slower than the deadline, twice at once so the
+     * fetches are shared, and checks that nothing keeps running after the deadline.
+     *
+     * @param channels The number of channels.
+     * @throws Exception If the test cannot run.
+     */
+    private static void deadline(int channels) throws Exception {
+        File fixtures = new File(System.getProperty("bench.fixtures", "bench/fixtures"));
+        byte[] schedule = Files.readAllBytes(new File(fixtures, "scheduledepisodes-132-day.xml").toPath());
+        Map<String, byte[]> recording = new HashMap<>();
+        List<Channel> list = new ArrayList<>();
+        for (int i = 0; i < channels; i++) {
+            recording.put(RecordingScheduleSource.scheduleFile(1000 + i, LocalDate.now()), schedule);
+            list.add(new Channel("Kanal " + i, 1000 + i, "Lokal kanal", null, null));
+        }
+        RequestScheduler scheduler = new RequestScheduler(8, 2, 0, 8);
+        ApiParser api = new ApiParser();
+        RefreshEngine engine = new RefreshEngine(api, new ReplayScheduleSource(scheduler, recording, SLOW_MILLIS),
+                scheduler, DEADLINE_MILLIS, 0);
+        Counter abandoned = Metrics.counter("refresh.pages.abandoned");
+        long abandonedBefore = abandoned.getCount();
+
+        long start = System.nanoTime();
+        Thread other = new Thread(() -> {
+            try {
+                engine.refresh(list, RequestScheduler.Priority.REFRESH);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        other.start();
+        int refreshed = engine.refresh(list, RequestScheduler.Priority.REFRESH);
+        other.join();
+        long refreshMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // Every worker is free again only if the abandoned fetches were interrupted
+        long probeStart = System.nanoTime();
+        scheduler.call(RequestScheduler.Priority.REFRESH, () -> null);
+        long probeMillis = (System.nanoTime() - probeStart) / 1_000_000;
+        int queued = scheduler.getQueuedCount(RequestScheduler.Priority.REFRESH);
+        long pages = abandoned.getCount() - abandonedBefore;
+        scheduler.shutdown();
+
+        System.out.printf("%nDeadline: %d channels, pages take %d ms, deadline %d ms, two refreshes at once%n",
+                channels, SLOW_MILLIS, DEADLINE_MILLIS);
+        System.out.printf("Refreshed %d, both refreshes done after %d ms, %d fetches abandoned, "
+                + "%d requests still queued, next request started after %d ms%n",
+                refreshed, refreshMillis, pages, queued, probeMillis);
+        check("refresh returned at the deadline", refreshMillis < SLOW_MILLIS / 2);
+        check("every page fetch was abandoned", pages == channels * 2L);
+        check("no abandoned request is still queued", queued == 0);
+        check("workers were freed", probeMillis < SLOW_MILLIS / 2);
+    }
+
+    /**
+     * Reports a failed check.
+     *
+     * @param name      What was checked.
+     * @param condition Whether it holds.
+     */
+    private static void check(String name, boolean condition) {
+        if (!condition) {
+            failures++;
+            System.out.println("FAILED: " + name);
+        }
+    }
+}
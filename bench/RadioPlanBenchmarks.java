@@ -0,0 +1,192 @@
+import javax.swing.JTable;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Benchmarks of schedule ingestion, storage and table population, run against the
+ * XML fixtures in bench/fixtures. Run with bench.sh; arguments select benchmarks whose
+ * name contains any of them.
+ */
+public class RadioPlanBenchmarks {
+
+    private static final int DAY_CHANNEL = 132;       // Channel of the schedule fixtures
+
+    private final File fixtures;
+    private final String[] filters;
+
+    /**
+     * Constructor to create the suite.
+     *
+     * @param fixtures The directory with the fixtures.
+     * @param filters  Name fragments of the benchmarks to run, all if empty.
+     */
+    private RadioPlanBenchmarks(File fixtures, String[] filters) {
+        this.fixtures = fixtures;
+        this.filters = filters;
+    }
+
+    /**
+     * Runs the benchmarks.
+     *
+     * @param args Name fragments of the benchmarks to run.
+     * @throws Exception If a benchmark fails.
+     */
+    public static void main(String[] args) throws Exception {
+        File fixtures = new File(System.getProperty("bench.fixtures", "bench/fixtures"));
+        new RadioPlanBenchmarks(fixtures, args).runAll();
+    }
+
+    /**
+     * Runs every selected benchmark.
+     *
+     * @throws Exception If a benchmark fails.
+     */
+    private void runAll() throws Exception {
+        byte[] day = read("scheduledepisodes-132-day.xml");
+        byte[] week = read("scheduledepisodes-132-week.xml");
+        byte[] channelsXml = read("channels.xml");
+
+        ApiParser dom = new ApiParser();
+        dom.setStreamingParser(false);
+        ApiParser stax = new ApiParser();
+        stax.setStreamingParser(true);
+        Channel channel = new Channel("P1", DAY_CHANNEL, "Rikskanal", null, null);
+
+        Bench.printHeader();
+
+        // Ingestion, per episode of the fixture so ns/op and B/op are the cost of one episode
+        int dayEpisodes = stax.parseSchedule(new ByteArrayInputStream(day), channel).size();
+        List<Program> weekPrograms = stax.parseSchedule(new ByteArrayInputStream(week), channel);
+        run("parse.dom.day", dayEpisodes, () -> dom.parseSchedule(new ByteArrayInputStream(day), channel));
+        run("parse.stax.day", dayEpisodes, () -> stax.parseSchedule(new ByteArrayInputStream(day), channel));
+        run("parse.dom.week", weekPrograms.size(), () -> dom.parseSchedule(new ByteArrayInputStream(week), channel));
+        run("parse.stax.week", weekPrograms.size(), () -> stax.parseSchedule(new ByteArrayInputStream(week), channel));
+
+        // Time filtering, with the fixture shifted so about half of it is in range
+        long[] starts = new long[weekPrograms.size()];
+        long middle = weekPrograms.get(weekPrograms.size() / 2).getStartTime();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = weekPrograms.get(i).getStartTime() - middle + now;
+        }
+        run("filter.isWithinTimeRange", starts.length, () -> {
+            long current = System.currentTimeMillis();
+            int inRange = 0;
+            for (long start : starts) {
+                if (dom.isWithinTimeRange(start, current)) {
+                    inRange++;
+                }
+            }
+            return inRange;
+        });
+        run("filter.filterTimeRange.week", 1, () -> dom.filterTimeRange(weekPrograms));
+
+        // Channel lookup as done for every menu selection
+        Map<Integer, Channel> channels = parseChannels(channelsXml);
+        List<Channel> channelList = new ArrayList<>(channels.values());
+        int[] lookup = {0};
+        run("channels.findByName", 1, () -> {
+            Channel wanted = channelList.get(lookup[0]++ % channelList.size());
+            return ActionHandler.findChannelByName(channels, wanted.getName());
+        });
+        run("channels.getById", 1, () -> channels.get(channelList.get(lookup[0]++ % channelList.size()).getId()));
+
+        // Table population as done by Gui.updateSchedulePanel, with a table listening to the model
+        List<Program> sorted = new ArrayList<>(weekPrograms);
+        sorted.sort((a, b) -> Long.compare(a.getStartTime(), b.getStartTime()));
+        List<Program> firstDay = window(sorted, 0);
+        List<Program> secondDay = window(sorted, 24);
+        List<Program> shifted = window(sorted, 1);
+        ScheduleTableModel model = new ScheduleTableModel();
+        JTable table = new JTable(model);
+        boolean[] flip = {false};
+        run("table.populate.replace", 1, () -> {
+            flip[0] = !flip[0];
+            model.setPrograms(flip[0] ? firstDay : secondDay);
+            return table;
+        });
+        run("table.populate.slide", 1, () -> {
+            flip[0] = !flip[0];
+            model.setPrograms(flip[0] ? firstDay : shifted);
+            return table;
+        });
+        run("table.populate.unchanged", 1, () -> {
+            model.setPrograms(firstDay);
+            return table;
+        });
+        run("table.populate.fromEmpty", 1, () -> {
+            model.setPrograms(Collections.emptyList());
+            model.setPrograms(firstDay);
+            return table;
+        });
+    }
+
+    /**
+     * Runs a benchmark if it is selected.
+     *
+     * @param name      The name of the benchmark.
+     * @param batchSize The number of logical operations per run.
+     * @param operation The operation.
+     * @throws Exception If the operation fails.
+     */
+    private void run(String name, int batchSize, Bench.Operation operation) throws Exception {
+        if (filters.length > 0) {
+            boolean selected = false;
+            for (String filter : filters) {
+                selected |= name.contains(filter);
+            }
+            if (!selected) {
+                return;
+            }
+        }
+        Bench.run(name, batchSize, operation);
+    }
+
+    /**
+     * Selects the programs starting within 24 hours from an offset into a schedule.
+     *
+     * @param sorted      The programs sorted by start time.
+     * @param offsetHours The offset in hours from the first program.
+     * @return The programs in the window.
+     */
+    private static List<Program> window(List<Program> sorted, int offsetHours) {
+        long from = sorted.get(0).getStartTime() + offsetHours * 3_600_000L;
+        long to = from + 24 * 3_600_000L;
+        List<Program> result = new ArrayList<>();
+        for (Program program : sorted) {
+            if (program.getStartTime() >= from && program.getStartTime() < to) {
+                result.add(program);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Builds the channel map from a channels response.
+     *
+     * @param xml The channels response.
+     * @return The channels by id.
+     * @throws Exception If the response cannot be parsed.
+     */
+    private static Map<Integer, Channel> parseChannels(byte[] xml) throws Exception {
+        ApiParser api = new ApiParser();
+        api.parseChannels(new ByteArrayInputStream(xml));
+        return api.getChannelsMap();
+    }
+
+    /**
+     * Reads a fixture.
+     *
+     * @param name The file name in the fixture directory.
+     * @return The contents.
+     * @throws Exception If the file cannot be read.
+     */
+    private byte[] read(String name) throws Exception {
+        return Files.readAllBytes(new File(fixtures, name).toPath());
+    }
+}
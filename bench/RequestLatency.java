@@ -0,0 +1,130 @@
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures how long loading a selected channel takes while a refresh of many channels
+ * is running, against a local stub server that answers every request slowly. The channel
+ * is loaded once with interactive priority and once with the priority of the refresh,
+ * which is how every request was queued before the RequestScheduler. Run with
+ * bench.sh requests.
+ */
+public class RequestLatency {
+
+    private static final int CHANNELS = 60;               // Channels in the refresh
+    private static final long SELECT_AFTER_MILLIS = 1000; // Time into the refresh when the channel is selected
+
+    private final byte[] schedule;      // Body of every stub response
+    private final long delayMillis;     // Delay of every stub response
+
+    /**
+     * Constructor to create the measurement.
+     *
+     * @param schedule    The body of every stub response.
+     * @param delayMillis The delay of every stub response.
+     */
+    private RequestLatency(byte[] schedule, long delayMillis) {
+        this.schedule = schedule;
+        this.delayMillis = delayMillis;
+    }
+
+    /**
+     * Runs the measurement.
+     *
+     * @param args The delay of the stub server in milliseconds, 200 if omitted.
+     * @throws Exception If the stub server cannot be started.
+     */
+    public static void main(String[] args) throws Exception {
+        File fixtures = new File(System.getProperty("bench.fixtures", "bench/fixtures"));
+        byte[] schedule = Files.readAllBytes(new File(fixtures, "scheduledepisodes-132-day.xml").toPath());
+        long delayMillis = args.length > 0 ? Long.parseLong(args[0]) : 200;
+        new RequestLatency(schedule, delayMillis).runAll();
+    }
+
+    /**
+     * Starts the stub server and measures both priorities.
+     *
+     * @throws Exception If the stub server cannot be started.
+     */
+    private void runAll() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, schedule.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(schedule);
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "stub");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+        int port = server.getAddress().getPort();
+
+        System.out.printf("Refresh of %d channels, stub delay %d ms, channel selected after %d ms%n%n",
+                CHANNELS, delayMillis, SELECT_AFTER_MILLIS);
+        System.out.printf("%-26s %16s %14s %12s%n", "Selection priority", "Selection (ms)", "Refresh (ms)", "Requests");
+        measure("INTERACTIVE", RequestScheduler.Priority.INTERACTIVE, port);
+        measure("REFRESH (as before)", RequestScheduler.Priority.REFRESH, port);
+        server.stop(0);
+    }
+
+    /**
+     * Runs a refresh of all channels and selects one more channel while it runs.
+     *
+     * @param name      The name of the row.
+     * @param selection The priority of the selection.
+     * @param port      The port of the stub server.
+     * @throws Exception If the measurement is interrupted.
+     */
+    private void measure(String name, RequestScheduler.Priority selection, int port) throws Exception {
+        ApiParser api = new ApiParser() {
+            @Override
+            public URL getScheduleUrl(int channelId, LocalDate date) throws MalformedURLException {
+                return new URL("http://127.0.0.1:" + port + "/v2/scheduledepisodes?channelid=" + channelId
+                        + "&date=" + date);
+            }
+        };
+        HttpFetcher fetcher = new HttpFetcher();
+        RefreshEngine engine = new RefreshEngine(api, new LiveScheduleSource(api, fetcher), fetcher.getScheduler(),
+                120_000, 0);
+        List<Channel> channels = new ArrayList<>();
+        for (int i = 0; i < CHANNELS; i++) {
+            channels.add(new Channel("Kanal " + i, 1000 + i, "Lokal kanal", null, null));
+        }
+        Channel selected = new Channel("Vald", 999, "Rikskanal", null, null);
+
+        long start = System.nanoTime();
+        Thread refresh = new Thread(() -> {
+            try {
+                engine.refresh(channels, RequestScheduler.Priority.REFRESH);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        refresh.start();
+        Thread.sleep(SELECT_AFTER_MILLIS);
+        long selectStart = System.nanoTime();
+        engine.refresh(List.of(selected), selection);
+        long selectMillis = (System.nanoTime() - selectStart) / 1_000_000;
+        refresh.join();
+        long refreshMillis = (System.nanoTime() - start) / 1_000_000;
+        System.out.printf("%-26s %16d %14d %12d%n", name, selectMillis, refreshMillis, fetcher.getRequestCount());
+        fetcher.shutdown();
+    }
+}
@@ -0,0 +1,275 @@
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import javax.swing.JTable;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the ingestion path against synthetic payloads at growing scales and reports wall
+ * time, peak heap and garbage collection for every phase, to show where the design stops
+ * scaling. The payloads come from SyntheticPayloads and are served by a ScheduleSource
+ * that generates each page when it is requested, so the payloads do not sit on the heap.
+ *
+ * Requests run on a RequestScheduler without a rate limit unless radioplan.requests.rate
+ * is set, so the phases measure the work of the application and not the limit. Run with
+ * bench.sh scale, optionally followed by scales such as 1000x7x200.
+ */
+public class ScaleHarness {
+
+    private static final String[] DEFAULT_SCALES = {"50x7x50", "250x7x100", "1000x7x200"};
+    private static final long DEADLINE_MILLIS = 10 * 60_000;    // Refresh deadline, long enough for any scale
+
+    private static final List<MemoryPoolMXBean> HEAP_POOLS = new ArrayList<>();
+
+    static {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                HEAP_POOLS.add(pool);
+            }
+        }
+    }
+
+    private final AtomicLong gcCount = new AtomicLong();       // Collections since the phase started
+    private final AtomicLong gcMillis = new AtomicLong();      // Collection time since the phase started
+    private final AtomicLong gcMaxMillis = new AtomicLong();   // Longest collection since the phase started
+
+    /**
+     * Runs the harness.
+     *
+     * @param args The scales as channels x days x episodes, the default scales if empty.
+     * @throws Exception If a phase fails.
+     */
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("radioplan.requests.rate") == null) {
+            System.setProperty("radioplan.requests.rate", "0");
+        }
+        ScaleHarness harness = new ScaleHarness();
+        harness.listenToCollections();
+        for (String scale : args.length > 0 ? args : DEFAULT_SCALES) {
+            harness.run(SyntheticPayloads.parse(scale), scale);
+        }
+    }
+
+    /**
+     * Registers for a notification after every garbage collection.
+     */
+    private void listenToCollections() {
+        NotificationListener listener = (Notification notification, Object handback) -> {
+            if (GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                GarbageCollectionNotificationInfo info =
+                        GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                long duration = info.getGcInfo().getDuration();
+                gcCount.incrementAndGet();
+                gcMillis.addAndGet(duration);
+                gcMaxMillis.accumulateAndGet(duration, Math::max);
+            }
+        };
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector instanceof NotificationEmitter) {
+                ((NotificationEmitter) collector).addNotificationListener(listener, null, null);
+            }
+        }
+    }
+
+    /**
+     * Runs every phase at one scale.
+     *
+     * @param payloads The generator of the scale.
+     * @param scale    The scale as given.
+     * @throws Exception If a phase fails.
+     */
+    private void run(SyntheticPayloads payloads, String scale) throws Exception {
+        System.gc();
+        List<LocalDate> days = payloads.days(LocalDate.now());
+        long episodes = (long) payloads.getChannels() * days.size() * payloads.getEpisodes();
+        System.out.printf("%nScale %s: %d channels, %d days, %d episodes per day, %,d episodes%n",
+                scale, payloads.getChannels(), days.size(), payloads.getEpisodes(), episodes);
+        System.out.printf("%-12s %11s %15s %6s %13s %15s  %s%n",
+                "Phase", "Wall (ms)", "Peak heap (MB)", "GCs", "GC time (ms)", "Max pause (ms)", "Result");
+
+        ApiParser api = new ApiParser();
+        RequestScheduler scheduler = new RequestScheduler();
+        ScheduleSource source = new GeneratedSource(payloads, scheduler);
+        RefreshEngine engine = new RefreshEngine(api, source, scheduler, DEADLINE_MILLIS, Long.MAX_VALUE);
+        List<Channel> channels = new ArrayList<>();
+
+        phase("generate", () -> {
+            long bytes = 0;
+            for (int id : payloads.channelIds()) {
+                for (LocalDate day : days) {
+                    bytes += payloads.schedule(id, day).length;
+                }
+            }
+            return String.format("%.1f MB of schedules", bytes / 1e6);
+        });
+        phase("channels", () -> {
+            api.parseChannels(source.fetchChannels(false, RequestScheduler.Priority.REFRESH).openBody());
+            channels.addAll(api.getChannelsMap().values());
+            return ActionHandler.groupChannelNames(channels).size() + " menus";
+        });
+        List<CompactSchedule> week = new ArrayList<>();
+        phase("parse.all", () -> {
+            for (Channel channel : channels) {
+                for (LocalDate day : days) {
+                    byte[] xml = payloads.schedule(channel.getId(), day);
+                    week.add(CompactSchedule.of(api.parseSchedule(new ByteArrayInputStream(xml), channel)));
+                }
+            }
+            long programs = 0;
+            for (CompactSchedule schedule : week) {
+                programs += schedule.size();
+            }
+            return String.format("%,d programs held", programs);
+        });
+        week.clear();
+        long[] parsed = new long[1];
+        phase("refresh", () -> refreshed(engine.refresh(channels, RequestScheduler.Priority.REFRESH), channels,
+                engine, parsed));
+        phase("revalidate", () -> refreshed(engine.refresh(channels, RequestScheduler.Priority.REFRESH), channels,
+                engine, parsed));
+        phase("advance", () -> refreshed(engine.advance(channels), channels, engine, parsed));
+        phase("index", () -> {
+            ScheduleStore store = ScheduleStore.build(api.getChannelsMap());
+            SearchIndex index = new SearchIndex();
+            index.update(channels);
+            return String.format("%,d programs, %,d words", store.size(), index.termCount());
+        });
+        phase("snapshot", () -> {
+            File file = File.createTempFile("scale", ".bin");
+            try {
+                ScheduleSnapshot.save(channels, file);
+                return String.format("%.1f MB", file.length() / 1e6);
+            } finally {
+                file.delete();
+            }
+        });
+        phase("table", () -> {
+            // What Gui.updateSchedulePanel does for every channel, without a window
+            ScheduleTableModel model = new ScheduleTableModel();
+            JTable table = new JTable(model);
+            for (Channel channel : channels) {
+                model.setPrograms(channel.getProgrammes());
+            }
+            return table.getRowCount() + " rows shown last";
+        });
+        scheduler.shutdown();
+    }
+
+    /**
+     * Describes the outcome of a refresh.
+     *
+     * @param refreshed The number of channels whose pages all arrived.
+     * @param channels  The channels refreshed.
+     * @param engine    The engine that refreshed them.
+     * @param parsed    The pages the engine had parsed before, updated to the pages parsed now.
+     * @return The description.
+     */
+    private static String refreshed(int refreshed, List<Channel> channels, RefreshEngine engine, long[] parsed) {
+        long before = parsed[0];
+        parsed[0] = engine.getParseCount();
+        return refreshed + "/" + channels.size() + " channels, " + (parsed[0] - before) + " pages parsed";
+    }
+
+    /**
+     * Runs a phase and prints its measurements.
+     *
+     * @param name  The name of the phase.
+     * @param phase The phase.
+     * @throws Exception If the phase fails.
+     */
+    private void phase(String name, Phase phase) throws Exception {
+        for (MemoryPoolMXBean pool : HEAP_POOLS) {
+            pool.resetPeakUsage();
+        }
+        gcCount.set(0);
+        gcMillis.set(0);
+        gcMaxMillis.set(0);
+        long start = System.nanoTime();
+        String result = phase.run();
+        long wallMillis = (System.nanoTime() - start) / 1_000_000;
+        // Notifications arrive on another thread shortly after each collection
+        Thread.sleep(50);
+        long peak = 0;
+        for (MemoryPoolMXBean pool : HEAP_POOLS) {
+            peak += pool.getPeakUsage().getUsed();
+        }
+        System.out.printf("%-12s %11d %15.1f %6d %13d %15d  %s%n", name, wallMillis, peak / 1e6, gcCount.get(),
+                gcMillis.get(), gcMaxMillis.get(), result);
+    }
+
+    /**
+     * One measured step of the ingestion path.
+     */
+    private interface Phase {
+
+        /**
+         * Runs the step.
+         *
+         * @return A short description of what the step produced.
+         * @throws Exception If the step fails.
+         */
+        String run() throws Exception;
+    }
+
+    /**
+     * Serves generated payloads on the workers of a RequestScheduler, answering a repeated
+     * conditional request as not modified like the API does for unchanged pages.
+     */
+    private static class GeneratedSource implements ScheduleSource {
+        private final SyntheticPayloads payloads;
+        private final RequestScheduler scheduler;
+        private final Map<String, Integer> hashes = new ConcurrentHashMap<>();  // Hash of the page last served
+
+        private GeneratedSource(SyntheticPayloads payloads, RequestScheduler scheduler) {
+            this.payloads = payloads;
+            this.scheduler = scheduler;
+        }
+
+        @Override
+        public HttpFetcher.Response fetchChannels(boolean conditional, RequestScheduler.Priority priority)
+                throws IOException {
+            return scheduler.call(priority, () -> serve("channels", payloads.channels(), conditional));
+        }
+
+        @Override
+        public <T> HttpFetcher.Result<T> fetchSchedule(int channelId, LocalDate day, boolean conditional,
+                                                       RequestScheduler.Priority priority,
+                                                       HttpFetcher.BodyReader<T> reader) throws IOException {
+            return scheduler.call(priority, () -> HttpFetcher.read(
+                    serve(channelId + "/" + day, payloads.schedule(channelId, day), conditional), reader));
+        }
+
+        /**
+         * Serves a page, or not modified if the same page was served before.
+         *
+         * @param key         The key of the page.
+         * @param body        The page.
+         * @param conditional Whether an unchanged page is answered as not modified.
+         * @return The response.
+         */
+        private HttpFetcher.Response serve(String key, byte[] body, boolean conditional) {
+            Integer hash = Arrays.hashCode(body);
+            Integer previous = hashes.put(key, hash);
+            if (conditional && hash.equals(previous)) {
+                return new HttpFetcher.Response(null, false);
+            }
+            return new HttpFetcher.Response(body, true);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the heap retained per program by the ways a schedule can be held: a list of
+ * Program objects as the parser creates them, the same list with pooled strings, and a
+ * CompactSchedule. The programs are synthetic, drawn from a fixed set of recurring shows
+ * the way real schedules repeat titles and descriptions. Run with bench.sh footprint.
+ */
+public class ScheduleFootprint {
+
+    private static final int CHANNELS = 50;       // Channels the programs are spread over
+    private static final int SHOWS = 400;         // Distinct shows the programs are drawn from
+    private static final long DAY_START = 1_700_000_000_000L;
+
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+    private final int programCount;
+    private final String[][] shows;       // Title, description and image URL per show
+
+    /**
+     * Constructor to create the measurement.
+     *
+     * @param programCount The number of programs to hold.
+     */
+    private ScheduleFootprint(int programCount) {
+        this.programCount = programCount;
+        this.shows = new String[SHOWS][];
+        Random random = new Random(1);
+        for (int i = 0; i < SHOWS; i++) {
+            StringBuilder description = new StringBuilder();
+            while (description.length() < 150 + random.nextInt(250)) {
+                description.append("Beskrivning av programmet ").append(i).append(" med gäster och musik. ");
+            }
+            shows[i] = new String[]{"Program " + i + " med programledare", description.toString(),
+                    "https://static-cdn.sr.se/images/" + (1000 + i) + "/bild.jpg?preset=api-default-square"};
+        }
+    }
+
+    /**
+     * Runs the measurement.
+     *
+     * @param args The number of programs, 12 000 if omitted.
+     * @throws Exception If a measurement is interrupted.
+     */
+    public static void main(String[] args) throws Exception {
+        int programCount = args.length > 0 ? Integer.parseInt(args[0]) : 12_000;
+        new ScheduleFootprint(programCount).runAll();
+    }
+
+    /**
+     * Measures every representation and prints the bytes retained per program.
+     *
+     * @throws Exception If a measurement is interrupted.
+     */
+    private void runAll() throws Exception {
+        System.out.printf("%d programs on %d channels from %d shows%n%n", programCount, CHANNELS, SHOWS);
+        System.out.printf("%-26s %14s %12s%n", "Representation", "Retained (kB)", "B/program");
+
+        // Warm up class loading and the pool so they are not counted in the first row
+        measure("warmup", () -> compact(parse()), false);
+
+        measure("List<Program> as parsed", this::parse, true);
+        measure("List<Program> pooled", () -> pooled(parse()), true);
+        measure("CompactSchedule", () -> compact(parse()), true);
+    }
+
+    /**
+     * Creates the schedules of all channels as the parser does, with new strings for every
+     * program even when the show recurs.
+     *
+     * @return The schedule per channel.
+     */
+    private List<List<Program>> parse() {
+        Random random = new Random(2);
+        List<List<Program>> channels = new ArrayList<>(CHANNELS);
+        for (int c = 0; c < CHANNELS; c++) {
+            channels.add(new ArrayList<>());
+        }
+        long[] times = new long[CHANNELS];
+        for (int i = 0; i < programCount; i++) {
+            int channel = i % CHANNELS;
+            String[] show = shows[random.nextInt(SHOWS)];
+            long start = DAY_START + times[channel];
+            long end = start + (15 + random.nextInt(105)) * 60_000L;
+            times[channel] = end - DAY_START;
+            Program program = new Program(new String(show[0].toCharArray()), new String(show[1].toCharArray()),
+                    start, end);
+            program.setImageUrl(new String(show[2].toCharArray()));
+            program.setId(1_000_000 + i);
+            program.setProgramId(1000 + random.nextInt(SHOWS));
+            channels.get(channel).add(program);
+        }
+        return channels;
+    }
+
+    /**
+     * Replaces the strings of the programs with pooled instances.
+     *
+     * @param channels The schedule per channel.
+     * @return The same schedules.
+     */
+    private static List<List<Program>> pooled(List<List<Program>> channels) {
+        StringPool pool = StringPool.shared();
+        List<List<Program>> result = new ArrayList<>(channels.size());
+        for (List<Program> programs : channels) {
+            List<Program> copy = new ArrayList<>(programs.size());
+            for (Program program : programs) {
+                Program pooled = new Program(pool.intern(program.getTitle()), pool.intern(program.getDescription()),
+                        program.getStartTime(), program.getEndTime());
+                pooled.setImageUrl(pool.intern(program.getImageUrl()));
+                pooled.setId(program.getId());
+                pooled.setProgramId(program.getProgramId());
+                copy.add(pooled);
+            }
+            result.add(copy);
+        }
+        return result;
+    }
+
+    /**
+     * Converts the schedules to CompactSchedules.
+     *
+     * @param channels The schedule per channel.
+     * @return The compact schedules.
+     */
+    private static List<List<Program>> compact(List<List<Program>> channels) {
+        List<List<Program>> result = new ArrayList<>(channels.size());
+        for (List<Program> programs : channels) {
+            result.add(CompactSchedule.of(programs));
+        }
+        return result;
+    }
+
+    /**
+     * Measures the heap retained by the schedules a supplier creates.
+     *
+     * @param name     The name of the representation.
+     * @param supplier Creates the schedules.
+     * @param print    Whether to print the result.
+     * @throws InterruptedException If interrupted while waiting for the collector.
+     */
+    private void measure(String name, Supplier supplier, boolean print) throws InterruptedException {
+        long before = usedHeap();
+        Object retained = supplier.get();
+        long after = usedHeap();
+        if (print) {
+            long bytes = after - before;
+            System.out.printf("%-26s %14.1f %12.1f%n", name, bytes / 1024.0, (double) bytes / programCount);
+        }
+        // Keeps the schedules reachable until after the measurement
+        Reference.reachabilityFence(retained);
+    }
+
+    /**
+     * Collects garbage until the used heap is the same three times in a row and returns it.
+     *
+     * @return The used heap in bytes.
+     * @throws InterruptedException If interrupted while waiting for the collector.
+     */
+    private static long usedHeap() throws InterruptedException {
+        long used = Long.MAX_VALUE;
+        int stable = 0;
+        for (int i = 0; i < 20 && stable < 2; i++) {
+            System.gc();
+            Thread.sleep(50);
+            // The pool drops entries of collected strings only when it is used
+            StringPool.shared().size();
+            long now = MEMORY.getHeapMemoryUsage().getUsed();
+            stable = Math.abs(now - used) < 1024 ? stable + 1 : 0;
+            used = now;
+        }
+        return used;
+    }
+
+    /**
+     * Creates the schedules to measure.
+     */
+    private interface Supplier {
+
+        /**
+         * Creates the schedules.
+         *
+         * @return The schedule per channel.
+         */
+        List<List<Program>> get();
+    }
+}
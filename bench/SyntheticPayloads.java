@@ -0,0 +1,289 @@
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates channels and scheduledepisodes responses in the format of the Sveriges Radio
+ * API for any number of channels, days and episodes per day. The output is deterministic:
+ * the same scale and seed always give the same bytes.
+ *
+ * Like the real schedules, every channel draws its episodes from a fixed set of recurring
+ * shows, so titles and descriptions repeat across days. Episodes of a day follow each
+ * other without gaps from midnight in the local time zone.
+ *
+ * Run directly to write a recording that ReplayScheduleSource can serve:
+ * java SyntheticPayloads directory 1000x7x200
+ */
+public class SyntheticPayloads {
+
+    private static final int SHOWS_PER_CHANNEL = 40;   // Recurring shows each channel draws from
+    private static final String[] WORDS = {
+            "nyheter", "musik", "kultur", "samhälle", "politik", "ekonomi", "vetenskap", "forskning",
+            "historia", "litteratur", "teater", "film", "konst", "natur", "sport", "debatt", "intervju",
+            "reportage", "samtal", "världen", "sverige", "jazz", "klassisk", "pop", "dokumentär", "humor",
+            "barn", "språk", "lyrik", "trafik", "väder", "hälsa", "teknik", "religion", "filosofi"};
+    private static final String[] TYPES = {
+            "Rikskanal", "Lokal kanal", "Extrakanaler", "Fler kanaler", "Minoritet och språk"};
+
+    private final int channels;
+    private final int days;
+    private final int episodes;
+    private final long seed;
+
+    /**
+     * Constructor to create a generator.
+     *
+     * @param channels The number of channels.
+     * @param days     The number of days per channel.
+     * @param episodes The number of episodes per channel and day.
+     * @param seed     The seed of the generated content.
+     */
+    public SyntheticPayloads(int channels, int days, int episodes, long seed) {
+        this.channels = channels;
+        this.days = days;
+        this.episodes = episodes;
+        this.seed = seed;
+    }
+
+    /**
+     * Writes the responses of a scale to a directory, named as RecordingScheduleSource
+     * names them, with the days centred on today and noon today as the time of the recording.
+     *
+     * @param args The directory and the scale as channels x days x episodes, e.g. 1000x7x200.
+     * @throws Exception If the files cannot be written.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: SyntheticPayloads <directory> <channels>x<days>x<episodes>");
+            return;
+        }
+        File directory = new File(args[0]);
+        directory.mkdirs();
+        SyntheticPayloads payloads = parse(args[1]);
+        Files.write(new File(directory, RecordingScheduleSource.CHANNELS_FILE).toPath(), payloads.channels());
+        Instant noon = LocalDate.now().atTime(12, 0).atZone(ZoneId.systemDefault()).toInstant();
+        Files.write(new File(directory, RecordingScheduleSource.RECORDED_AT_FILE).toPath(),
+                noon.toString().getBytes(StandardCharsets.UTF_8));
+        long bytes = 0;
+        for (int id : payloads.channelIds()) {
+            for (LocalDate day : payloads.days(LocalDate.now())) {
+                byte[] schedule = payloads.schedule(id, day);
+                Files.write(new File(directory, RecordingScheduleSource.scheduleFile(id, day)).toPath(), schedule);
+                bytes += schedule.length;
+            }
+        }
+        System.out.printf("Wrote %s to %s, %.1f MB of schedules%n", args[1], directory, bytes / 1e6);
+    }
+
+    /**
+     * Creates a generator for a scale written as channels x days x episodes.
+     *
+     * @param scale The scale, e.g. 1000x7x200.
+     * @return The generator, with seed 1.
+     */
+    public static SyntheticPayloads parse(String scale) {
+        String[] parts = scale.toLowerCase().split("x");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Scale must be channels x days x episodes: " + scale);
+        }
+        return new SyntheticPayloads(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]),
+                Integer.parseInt(parts[2]), 1);
+    }
+
+    /**
+     * Getter method to retrieve the number of channels.
+     * @return The number of channels.
+     */
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * Getter method to retrieve the number of episodes per channel and day.
+     * @return The number of episodes.
+     */
+    public int getEpisodes() {
+        return episodes;
+    }
+
+    /**
+     * Lists the ids of the generated channels.
+     *
+     * @return The channel ids.
+     */
+    public List<Integer> channelIds() {
+        List<Integer> ids = new ArrayList<>(channels);
+        for (int i = 0; i < channels; i++) {
+            ids.add(channelId(i));
+        }
+        return ids;
+    }
+
+    /**
+     * Lists the generated days, centred on a day.
+     *
+     * @param today The middle day.
+     * @return The days, oldest first.
+     */
+    public List<LocalDate> days(LocalDate today) {
+        List<LocalDate> result = new ArrayList<>(days);
+        LocalDate first = today.minusDays((days - 1) / 2);
+        for (int i = 0; i < days; i++) {
+            result.add(first.plusDays(i));
+        }
+        return result;
+    }
+
+    /**
+     * Generates the channels response.
+     *
+     * @return The XML.
+     */
+    public byte[] channels() {
+        StringBuilder xml = new StringBuilder(channels * 700);
+        xml.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<sr>\n  <channels>\n");
+        for (int i = 0; i < channels; i++) {
+            int id = channelId(i);
+            Random random = new Random(seed * 31 + id);
+            xml.append("    <channel id=\"").append(id).append("\" name=\"").append(channelName(i)).append("\">\n");
+            xml.append("      <image>https://static-cdn.sr.se/images/").append(id).append("/kanal.png</image>\n");
+            xml.append("      <color>").append(String.format("%06X", random.nextInt(0x1000000))).append("</color>\n");
+            xml.append("      <tagline>").append(escape(sentence(random, 12))).append("</tagline>\n");
+            xml.append("      <siteurl>https://sverigesradio.se/kanal/").append(id).append("</siteurl>\n");
+            xml.append("      <scheduleurl>https://api.sr.se/v2/scheduledepisodes?channelid=").append(id)
+                    .append("</scheduleurl>\n");
+            xml.append("      <channeltype>").append(escape(TYPES[i % TYPES.length])).append("</channeltype>\n");
+            xml.append("    </channel>\n");
+        }
+        xml.append("  </channels>\n</sr>\n");
+        return xml.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Generates the scheduledepisodes response of one channel and day.
+     *
+     * @param channelId The id of the channel.
+     * @param day       The day.
+     * @return The XML.
+     */
+    public byte[] schedule(int channelId, LocalDate day) {
+        int index = channelId - channelId(0);
+        String[][] shows = shows(channelId);
+        Random random = new Random(seed * 1_000_003 + channelId * 10_007L + day.toEpochDay());
+        long dayStart = day.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        long length = 24 * 3_600_000L / episodes;
+
+        StringBuilder xml = new StringBuilder(episodes * 900);
+        xml.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<sr>\n  <schedule>\n");
+        for (int e = 0; e < episodes; e++) {
+            int show = random.nextInt(shows.length);
+            String[] fields = shows[show];
+            long start = dayStart + e * length;
+            xml.append("    <scheduledepisode>\n");
+            long episodeId = ((day.toEpochDay() % 1000) * channels + index) * episodes + e + 1;
+            xml.append("      <episodeid>").append(episodeId % Integer.MAX_VALUE).append("</episodeid>\n");
+            xml.append("      <title>").append(fields[0]).append("</title>\n");
+            if (fields[1] != null) {
+                xml.append("      <subtitle>").append(fields[1]).append("</subtitle>\n");
+            }
+            xml.append("      <description>").append(fields[2]).append("</description>\n");
+            xml.append("      <starttimeutc>").append(Instant.ofEpochMilli(start)).append("</starttimeutc>\n");
+            xml.append("      <endtimeutc>").append(Instant.ofEpochMilli(start + length)).append("</endtimeutc>\n");
+            xml.append("      <program id=\"").append(fields[3]).append("\" name=\"").append(fields[0]).append("\" />\n");
+            xml.append("      <channel id=\"").append(channelId).append("\" name=\"").append(channelName(index))
+                    .append("\" />\n");
+            xml.append("      <imageurl>https://static-cdn.sr.se/images/").append(fields[3])
+                    .append("/bild.jpg?preset=api-default-square</imageurl>\n");
+            xml.append("    </scheduledepisode>\n");
+        }
+        xml.append("  </schedule>\n</sr>\n");
+        return xml.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Creates the recurring shows of a channel: escaped title, subtitle or null, escaped
+     * description and program id.
+     *
+     * @param channelId The id of the channel.
+     * @return The shows.
+     */
+    private String[][] shows(int channelId) {
+        Random random = new Random(seed * 7 + channelId);
+        String[][] shows = new String[SHOWS_PER_CHANNEL][];
+        for (int i = 0; i < shows.length; i++) {
+            String title = capitalize(sentence(random, 1 + random.nextInt(3)));
+            if (random.nextInt(5) == 0) {
+                title += " & " + WORDS[random.nextInt(WORDS.length)];
+            }
+            String subtitle = random.nextBoolean() ? capitalize(sentence(random, 2)) : null;
+            String description = capitalize(sentence(random, 20 + random.nextInt(30))) + ".";
+            shows[i] = new String[]{escape(title), subtitle == null ? null : escape(subtitle), escape(description),
+                    String.valueOf(channelId * 100 + i)};
+        }
+        return shows;
+    }
+
+    /**
+     * Maps a channel index to its id.
+     *
+     * @param index The index of the channel.
+     * @return The id.
+     */
+    private static int channelId(int index) {
+        return 10_000 + index;
+    }
+
+    /**
+     * Names a channel.
+     *
+     * @param index The index of the channel.
+     * @return The name.
+     */
+    private static String channelName(int index) {
+        return "Kanal " + (index + 1);
+    }
+
+    /**
+     * Joins random words.
+     *
+     * @param random The random source.
+     * @param count  The number of words.
+     * @return The words separated by spaces.
+     */
+    private static String sentence(Random random, int count) {
+        StringBuilder sentence = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sentence.append(' ');
+            }
+            sentence.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sentence.toString();
+    }
+
+    /**
+     * Capitalizes the first letter of a text.
+     *
+     * @param text The text.
+     * @return The capitalized text.
+     */
+    private static String capitalize(String text) {
+        return Character.toUpperCase(text.charAt(0)) + text.substring(1);
+    }
+
+    /**
+     * Escapes the characters that XML text and attributes cannot hold.
+     *
+     * @param text The text.
+     * @return The escaped text.
+     */
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace("\"", "&quot;");
+    }
+}
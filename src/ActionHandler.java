@@ -2,33 +2,37 @@
  * ActionHandler class implements ActionListener and ListSelectionListener interfaces
  * to handle actions and selections in the GUI.
  */
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 import javax.swing.*;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.File;
 import java.io.IOException;
 import java.net.*;
-import java.text.ParseException;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 public class ActionHandler implements ActionListener, ListSelectionListener {
 
     private Gui gui;
     private ApiParser api;
+    private HttpFetcher fetcher;
+    private ScheduleSource source;
+    private RefreshEngine refreshEngine;
+    private ImageCache imageCache;
+    private UsageStats usageStats;
+    private SchedulePrefetcher prefetcher;
 
     private Channel latestChannel;
 
@@ -37,9 +41,22 @@ public class ActionHandler implements ActionListener, ListSelectionListener {
     private Boolean programselected;
 
     private Boolean update;
-    private Boolean network;
     private Boolean downloaded;
 
+    private File snapshotFile;
+    private File catalogFile;         // Channel catalog used to fill the menus at startup
+
+    private volatile ScheduleStore scheduleStore;     // Time index over all cached schedules
+    private final SearchIndex searchIndex = new SearchIndex();    // Full-text index over all cached schedules
+
+    private static final int SEARCH_RESULTS = 20;     // Most results shown for a search
+
+    private static final long ACTION_BUDGET_NANOS = 16_000_000;   // One frame, the most an action may block the EDT
+
+    private static final LatencyHistogram ACTION_LATENCY = Metrics.histogram("ui.action");
+    private static final Counter SLOW_ACTIONS = Metrics.counter("ui.slowActions");   // Actions over the budget
+    private static final LatencyHistogram SCHEDULE_EPISODES_LATENCY = Metrics.histogram("refresh.scheduleEpisodes");
+
     /**
      * Constructor for ActionHandler class.
      *
@@ -49,14 +66,35 @@ public class ActionHandler implements ActionListener, ListSelectionListener {
     public ActionHandler(ApiParser api, Gui gui) {
         this.gui = gui;
         this.api = api;
+        this.fetcher = new HttpFetcher();
+        this.source = ScheduleSource.fromProperties(api, fetcher);
+        api.setClock(source.getClock());
+        this.refreshEngine = new RefreshEngine(api, source, fetcher.getScheduler());
+        this.imageCache = new ImageCache(fetcher);
+        gui.setImageLoader(new AsyncImageLoader(imageCache));
+        this.usageStats = new UsageStats();
+        this.prefetcher = new SchedulePrefetcher(refreshEngine, fetcher, usageStats);
         this.update = false;
-        this.network = true;
+        this.snapshotFile = AppDirectory.getFile("schedule.bin");
+        this.catalogFile = AppDirectory.getFile("channels.bin");
+        // Render the saved channels right away and revalidate them in the background
+        loadSnapshot();
+        scheduleStore = ScheduleStore.build(api.getChannelsMap());
+        searchIndex.update(api.getChannelsMap().values());
         parseChannels();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::saveSnapshot, "snapshot-save"));
+        Runtime.getRuntime().addShutdownHook(new Thread(usageStats::save, "usage-save"));
         gui.setUpOptionMenu(this);
+        gui.setUpSearchField(this);
         gui.addListenerToTable(this);
         timer = new Timer(60 * 60 * 1000, e -> {
-            if(!update){
-                parseScheduleEpisodes();
+            if(!Boolean.TRUE.equals(downloaded)){
+                // The menus were filled from the saved catalog, try the channel list again
+                parseChannels();
+            }
+            else if(!update){
+                // Only the day entering the time range is downloaded
+                parseScheduleEpisodes(false);
             }
         });
         timer.setInitialDelay(60 * 60 * 1000);
@@ -64,48 +102,37 @@ public class ActionHandler implements ActionListener, ListSelectionListener {
     }
 
     /**
-     * Parses the list of channels from the API.
+     * Parses the list of channels from the API and applies the differences to the
+     * channels shown. When the download fails the channels from the saved catalog
+     * remain usable, so the user is only told when there are none.
      */
     public void parseChannels() {
         SwingWorker<Void, Void> worker = new SwingWorker<>() {
+            private ChannelCatalog.Diff diff;   // Changes to the channels, null if the list is unchanged
+
             @Override
             protected Void doInBackground() {
                 try {
-                    String xmlUrl = "http://api.sr.se/api/v2/channels/?pagination=false";
-                    URL url = new URL(xmlUrl);
-
-                    // Create a new instance of a document builder factory
-                    DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-                    DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-                    // Attempt to parse the URL
-                    Document doc = dBuilder.parse(url.openStream());
-                    doc.getDocumentElement().normalize();
-
-                    NodeList nodeList = doc.getElementsByTagName("channel");
-
-                    // Loop through the list of channels
-                    for (int i = 0; i < nodeList.getLength(); i++) {
-                        Node node = nodeList.item(i);
-
-                        if (node.getNodeType() == Node.ELEMENT_NODE) {
-                            String channelName = node.getAttributes().getNamedItem("name").getNodeValue();
-                            int channelId = Integer.parseInt(node.getAttributes().getNamedItem("id").getNodeValue());
-                            String channelType = api.getNodeValue(node, "channeltype");
-                            String imageUrl = api.getNodeValue(node, "image");
-                            String about = api.getNodeValue(node, "tagline");
-
-                            // Create a Channel object
-                            Channel channel = new Channel(channelName, channelId, channelType, imageUrl, about);
-
-                            // Add the Channel to the HashMap using channel ID as the key
-                            api.getChannelsMap().put(channelId, channel);
+                    // Only ask for changes when the previous download was parsed
+                    HttpFetcher.Response response = source.fetchChannels(Boolean.TRUE.equals(downloaded),
+                            RequestScheduler.Priority.REFRESH);
+                    if (response.isModified()) {
+                        diff = api.parseChannels(response.openBody());
+                        if (!diff.isEmpty()) {
+                            addChannelstoGui();
+                        }
+                        if (!diff.isEmpty() || !catalogFile.isFile()) {
+                            saveCatalog();
                         }
                     }
                     downloaded = true;
                 } catch (Exception e) {
-                    SwingUtilities.invokeLater(() -> {
-                        gui.displayPopupMessage("ERROR: Gick inte att hämta kanaler: " + e.getMessage());
-                    });
+                    Metrics.recordError("channels", e);
+                    if (api.getChannelsMap().isEmpty()) {
+                        SwingUtilities.invokeLater(() -> {
+                            gui.displayPopupMessage("ERROR: Gick inte att hämta kanaler: " + e.getMessage());
+                        });
+                    }
                     downloaded = false;
                 }
                 return null;
@@ -113,33 +140,255 @@ public class ActionHandler implements ActionListener, ListSelectionListener {
             @Override
             protected void done() {
                 SwingUtilities.invokeLater(() -> {
-                    addChannelstoGui();
+                    if (diff != null) {
+                        applyChannelDiff(diff);
+                    }
+                    if (Boolean.TRUE.equals(downloaded)) {
+                        revalidateSchedules();
+                    }
                 });
             }
         };
         worker.execute();
     }
 
+    /**
+     * Loads the channels and schedules saved by the previous run and adds them to the GUI.
+     * The channels come from the catalog and get their schedules from the snapshot. Without
+     * a catalog, e.g. after an update from an older version, the snapshot channels are used.
+     */
+    private void loadSnapshot() {
+        List<Channel> channels = ChannelCatalog.load(catalogFile);
+        List<Channel> saved = ScheduleSnapshot.load(snapshotFile);
+        if (channels.isEmpty()) {
+            channels = saved;
+        } else {
+            Map<Integer, Channel> savedById = new HashMap<>();
+            for (Channel channel : saved) {
+                savedById.put(channel.getId(), channel);
+            }
+            for (Channel channel : channels) {
+                Channel withSchedule = savedById.get(channel.getId());
+                if (withSchedule != null) {
+                    channel.setProgrammes(withSchedule.getProgrammes());
+                    channel.setProgramCached(withSchedule.isProgramCached());
+                }
+            }
+        }
+        for (Channel channel : channels) {
+            api.getChannelsMap().put(channel.getId(), channel);
+        }
+        if (!channels.isEmpty()) {
+            addChannelstoGui();
+        }
+    }
+
+    /**
+     * Saves the channel catalog for the next start.
+     */
+    private void saveCatalog() {
+        try {
+            ChannelCatalog.save(api.getChannelsMap().values(), catalogFile);
+        } catch (IOException e) {
+            // Without a catalog the next start fills the menus from the snapshot or the download
+        }
+    }
+
+    /**
+     * Shows the new catalog entry of the selected channel if a download changed it, and
+     * deselects it if the download removed it. The channel menus are rebuilt separately by
+     * addChannelstoGui. Must be called on the EDT.
+     *
+     * @param diff The changes to the channels.
+     */
+    private void applyChannelDiff(ChannelCatalog.Diff diff) {
+        for (Channel channel : diff.getRemoved()) {
+            if (latestChannel != null && latestChannel.getId() == channel.getId()) {
+                latestChannel = null;
+                gui.updateSchedulePanel(List.of());
+                gui.clearInfoPanel();
+                gui.displayPopupMessage("Kanalen " + channel.getName() + " sänds inte längre och har tagits bort");
+            }
+        }
+        for (Channel[] change : diff.getChanged()) {
+            Channel channel = change[1];
+            if (latestChannel != null && latestChannel.getId() == channel.getId()) {
+                latestChannel = channel;
+                gui.updateInfoPanel(channel.getImageUrl(), channel.getAbout());
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the time index, updates the search index and saves the snapshot after
+     * schedules have been refreshed. Called from background threads.
+     */
+    private void schedulesUpdated() {
+        scheduleStore = ScheduleStore.build(api.getChannelsMap());
+        searchIndex.update(api.getChannelsMap().values());
+        saveSnapshot();
+    }
+
+    /**
+     * Getter method to retrieve the time index over all cached schedules.
+     * @return The latest schedule store.
+     */
+    public ScheduleStore getScheduleStore() {
+        return scheduleStore;
+    }
+
+    /**
+     * Getter method to retrieve the full-text index over all cached schedules.
+     * @return The search index.
+     */
+    public SearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    /**
+     * Searches the cached schedules of all channels and shows the results below the
+     * search field. Runs on the EDT, which the index never blocks, even during a reindex.
+     *
+     * @param query The query as typed.
+     */
+    private void search(String query) {
+        gui.showSearchResults(query, searchIndex.search(query, SEARCH_RESULTS, api.getClock().millis()), this::openSearchResult);
+    }
+
+    /**
+     * Shows the channel of a search result and the information about its program.
+     *
+     * @param result The selected result.
+     */
+    private void openSearchResult(SearchIndex.Result result) {
+        Channel channel = result.getChannel();
+        latestChannel = channel;
+        boolean prefetchedOnly = usageStats.getCount(channel.getId()) == 0;
+        usageStats.record(channel.getId());
+        gui.updateInfoPanel(channel.getImageUrl(), channel.getAbout());
+        gui.updateSchedulePanel(channel.getProgrammes());
+        displayInfoPopup(result.getProgram());
+        if (prefetchedOnly) {
+            parseChannelProgram(channel);
+        }
+    }
+
+    /**
+     * Shows what is on air right now on every channel with a cached schedule.
+     */
+    private void displayOnAirNow() {
+        List<ScheduleStore.Entry> onAir = scheduleStore.onAirAt(api.getClock().millis());
+        if (onAir.isEmpty()) {
+            gui.displayPopupMessage("Inga tablåer har hämtats ännu");
+            return;
+        }
+        StringBuilder message = new StringBuilder();
+        for (ScheduleStore.Entry entry : onAir) {
+            message.append(entry.getChannel().getName()).append(": ").append(entry.getProgram().getTitle())
+                    .append(" (till ").append(TimeFormat.formatDisplay(entry.getProgram().getEndTime())).append(")\n");
+        }
+        gui.displayPopupMessage(message.toString());
+    }
+
+    /**
+     * Saves the channels and their cached schedules for the next start.
+     */
+    private void saveSnapshot() {
+        try {
+            ScheduleSnapshot.save(api.getChannelsMap().values(), snapshotFile);
+        } catch (IOException e) {
+            // The snapshot is only an optimisation, the next start downloads everything again
+        }
+    }
+
+    /**
+     * Lists the channels that the hourly update and the update button keep current: the
+     * cached channels the user has selected at some point. Channels only loaded by the
+     * prefetch are left out so they do not multiply the refresh traffic; they are
+     * refreshed when they are first selected, and the prefetch started after every update
+     * loads them again once they are outdated.
+     *
+     * @return The channels to refresh.
+     */
+    private List<Channel> periodicChannels() {
+        List<Channel> channels = new ArrayList<>();
+        for (Channel channel : api.getChannelsMap().values()) {
+            if (channel.isProgramCached() && usageStats.getCount(channel.getId()) > 0) {
+                channels.add(channel);
+            }
+        }
+        return channels;
+    }
+
+    /**
+     * Refreshes the cached schedules in the background without notifying the user,
+     * used after startup to replace the schedules loaded from the snapshot. Afterwards
+     * the schedules of the remaining channels are prefetched.
+     */
+    private void revalidateSchedules() {
+        List<Program> shownProgrammes = latestChannel != null ? latestChannel.getProgrammes() : null;
+        SwingWorker<Void, Void> worker = new SwingWorker<>() {
+            @Override
+            protected Void doInBackground() {
+                try {
+                    List<Channel> cachedChannels = periodicChannels();
+                    if (!cachedChannels.isEmpty()
+                            && refreshEngine.refresh(cachedChannels, RequestScheduler.Priority.REFRESH) > 0) {
+                        schedulesUpdated();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                if (latestChannel != null && latestChannel.getProgrammes() != shownProgrammes) {
+                    gui.updateSchedulePanel(latestChannel.getProgrammes());
+                }
+                prefetcher.start(new ArrayList<>(api.getChannelsMap().values()), () -> schedulesUpdated());
+            }
+        };
+        worker.execute();
+    }
+
 
+    /**
+     * Rebuilds the channel menus from the channel map. The channels are grouped and sorted
+     * on the calling thread and the menus are swapped in by a single task on the EDT.
+     */
     public void addChannelstoGui() {
-        // Add the actionlistener to all the menuitems in the gui
-        for (Map.Entry<Integer, Channel> entry : api.getChannelsMap().entrySet()) {
-            if (entry.getValue().getChannelType().equals("Rikskanal")) {
-                SwingUtilities.invokeLater(() -> gui.addChannelRiksKanaler(entry.getValue().getName(), this));
-            } else if (entry.getValue().getChannelType().equals("Lokal kanal")) {
-                SwingUtilities.invokeLater(() -> gui.addChannelLokalKanaler(entry.getValue().getName(), this));
-            } else if (entry.getValue().getChannelType().equals("Extrakanaler")) {
-                SwingUtilities.invokeLater(() -> gui.addChannelExtrakanaler(entry.getValue().getName(), this));
-            } else if (entry.getValue().getChannelType().equals("Fler kanaler")) {
-                SwingUtilities.invokeLater(() -> gui.addChannelFlerkanaler(entry.getValue().getName(), this));
-            } else if (entry.getValue().getChannelType().equals("Minoritet och språk")) {
-                SwingUtilities.invokeLater(() -> gui.addChannelMinoritet(entry.getValue().getName(), this));
+        Map<ChannelType, List<String>> names = groupChannelNames(api.getChannelsMap().values());
+        SwingUtilities.invokeLater(() -> gui.setChannels(names, this));
+    }
+
+    /**
+     * Groups the channel names by channel type, each group sorted in Swedish alphabetical
+     * order. Channels of unknown types are left out.
+     *
+     * @param channels The channels.
+     * @return The sorted names per channel type.
+     */
+    static Map<ChannelType, List<String>> groupChannelNames(Collection<Channel> channels) {
+        Map<ChannelType, List<String>> names = new EnumMap<>(ChannelType.class);
+        for (Channel channel : channels) {
+            ChannelType type = channel.getType();
+            if (type != null) {
+                names.computeIfAbsent(type, key -> new ArrayList<>()).add(channel.getName());
             }
         }
+        Collator collator = Collator.getInstance(new Locale("sv", "SE"));
+        for (List<String> group : names.values()) {
+            group.sort(collator);
+        }
+        return names;
     }
 
     @Override
     public void actionPerformed(ActionEvent e) {
+        long start = System.nanoTime();
+        long nestedWaitStart = EdtWatchdog.getNestedWaitNanos();
         String command = e.getActionCommand();
 
         // Get the selected channel from the channels map
@@ -149,34 +398,66 @@ public class ActionHandler implements ActionListener, ListSelectionListener {
         // Update the GUI with the image URL of the selected channel
         if (selectedChannel != null) {
             latestChannel = selectedChannel;
+            // A channel never selected before was only prefetched and has not been kept current
+            boolean prefetchedOnly = usageStats.getCount(selectedChannel.getId()) == 0;
+            usageStats.record(selectedChannel.getId());
             String imageUrl = selectedChannel.getImageUrl();
             gui.updateInfoPanel(imageUrl, selectedChannel.getAbout());
             if (!selectedChannel.isProgramCached()) {
                 parseChannelProgram(selectedChannel);
             } else {
                 gui.updateSchedulePanel(selectedChannel.getProgrammes());
+                if (prefetchedOnly) {
+                    parseChannelProgram(selectedChannel);
+                }
             }
         }
         if ("update".equals(command)) {
             if(downloaded==true){
-                parseScheduleEpisodes();
+                parseScheduleEpisodes(true);
             }
             else{
                 parseChannels();
             }
         }
+        if ("search".equals(command)) {
+            search(gui.getSearchText());
+        }
+        if ("now".equals(command)) {
+            displayOnAirNow();
+        }
         if ("about".equals(command)) {
             gui.displayPopupMessage("Programmerat av Hinok Zakir Saleh 2024");
         }
+        // Time a modal dialog such as the about box waited for the user does not block the EDT
+        long nestedWait = EdtWatchdog.getNestedWaitNanos() - nestedWaitStart;
+        recordActionTime(System.nanoTime() - start - nestedWait);
+    }
+
+    /**
+     * Records how long an action blocked the Event Dispatch Thread in the ui.action
+     * histogram, and counts it in ui.slowActions if it took longer than one frame.
+     * Time spent waiting for the user in a modal dialog opened by the action, such as the
+     * about box, is left out, as it is by the EdtWatchdog.
+     *
+     * @param nanos The duration of the action in nanoseconds.
+     */
+    private void recordActionTime(long nanos) {
+        ACTION_LATENCY.record(nanos);
+        if (nanos > ACTION_BUDGET_NANOS) {
+            SLOW_ACTIONS.increment();
+        }
     }
 
     @Override
     public void valueChanged(ListSelectionEvent e) {
-        if (!e.getValueIsAdjusting()) {
+        // Rows moving during a schedule update shift the selection without the user selecting anything
+        if (!e.getValueIsAdjusting() && !gui.isUpdatingSchedule()) {
             int selectedRow = gui.getScheduleTable().getSelectedRow();
             if (selectedRow != -1) {
-                String selectedProgramName = gui.getScheduleTable().getValueAt(selectedRow, 0).toString();
-                Program selectedProgram = getProgramByName(latestChannel.getProgrammes(), selectedProgramName);
+                // The row holds the program itself, so equal titles cannot be mixed up
+                int modelRow = gui.getScheduleTable().convertRowIndexToModel(selectedRow);
+                Program selectedProgram = gui.getScheduleModel().getProgramAt(modelRow);
                 if (selectedProgram != null) {
                     // Display information in a popup window
                     displayInfoPopup(selectedProgram);
@@ -187,22 +468,6 @@ public class ActionHandler implements ActionListener, ListSelectionListener {
         gui.unlockTable();
     }
 
-    /**
-     * Retrieves a Program object by its name from a list of programs.
-     *
-     * @param programs    List of programs.
-     * @param programName Name of the program to retrieve.
-     * @return Program object if found, null otherwise.
-     */
-    private static Program getProgramByName(List<Program> programs, String programName) {
-        for (Program program : programs) {
-            if (program.getName().equals(programName)) {
-                return program;
-            }
-        }
-        return null;
-    }
-
     /**
      * Finds a Channel by its name from a map of channels.
      *
@@ -210,7 +475,7 @@ public class ActionHandler implements ActionListener, ListSelectionListener {
      * @param channelName  Name of the channel to find.
      * @return Channel object if found, null otherwise.
      */
-    private static Channel findChannelByName(Map<Integer, Channel> channelMap, String channelName) {
+    static Channel findChannelByName(Map<Integer, Channel> channelMap, String channelName) {
         for (Map.Entry<Integer, Channel> entry : channelMap.entrySet()) {
             Channel channel = entry.getValue();
             if (channelName.equals(channel.getName())) {
@@ -229,35 +494,19 @@ public class ActionHandler implements ActionListener, ListSelectionListener {
         SwingWorker<Void, Void> worker = new SwingWorker<>() {
             @Override
             protected Void doInBackground() throws Exception {
+                prefetcher.beginUserLoad();
                 try {
-                    String channelId = String.valueOf(channel.getId());
-
-                    // Get the current date and time
-                    LocalDateTime now = LocalDateTime.now();
-                    DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-
-                    // Determine the URLs for the current date and 12 hours ahead
-                    LocalDateTime twelveHoursPast = now.minusHours(12);
-                    String scheduleUrl1 = "http://api.sr.se/v2/scheduledepisodes?channelid=" + channelId + "&date=" + twelveHoursPast.format(formatter) + "&pagination=false";
-                    LocalDateTime twelveHoursLater = now.plusHours(12);
-                    String scheduleUrl2 = "http://api.sr.se/v2/scheduledepisodes?channelid=" + channelId + "&date=" + twelveHoursLater.format(formatter) + "&pagination=false";
-                    // Fetch data from the first URL
-                    URL url1 = new URL(scheduleUrl1);
-                    isInternetAvailable();
-                    if (url1 != null && network) {
-                        parseSchedule(url1, channel);
+                    // The user waits for this channel, so it goes ahead of refreshes and the prefetch
+                    if (refreshEngine.refresh(List.of(channel), RequestScheduler.Priority.INTERACTIVE) == 0) {
+                        SwingUtilities.invokeLater(() -> gui.displayPopupMessage("Error: kan inte skapa anslutning till server"));
+                    } else {
+                        schedulesUpdated();
                     }
-
-                    // Fetch data from the second URL
-                    URL url2 = new URL(scheduleUrl2);
-                    if (url2 != null && network) {
-                        parseSchedule(url2, channel);
-                    }
-
                 } catch (Exception e) {
-                    //handle exception
+                    Metrics.recordError("parseChannelProgram", e);
+                } finally {
+                    prefetcher.endUserLoad();
                 }
-                channel.setProgramCached(true);
                 return null;
             }
 
@@ -266,7 +515,6 @@ public class ActionHandler implements ActionListener, ListSelectionListener {
                 try {
                     SwingUtilities.invokeLater(() -> {
                         gui.updateSchedulePanel(channel.getProgrammes());
-                        isInternetAvailable();
                     });
                 } catch (Exception e) {
                     //handle exception
@@ -281,46 +529,35 @@ public class ActionHandler implements ActionListener, ListSelectionListener {
 
     /**
      * Parses the episodes of the program schedule for all channels.
+     *
+     * @param revalidate True to check every day with the server, false to only move the
+     *                   schedules to the current time range as the hourly update does.
+     *                   Afterwards the prefetch is started again for the other channels.
      */
-    public synchronized void parseScheduleEpisodes() {
+    public synchronized void parseScheduleEpisodes(boolean revalidate) {
         gui.lockUpdate();
         update=true;
+        long start = System.nanoTime();
+        // The schedule shown now, used to skip redrawing it when nothing changed
+        List<Program> shownProgrammes = latestChannel != null ? latestChannel.getProgrammes() : null;
         SwingWorker<Void, Void> worker = new SwingWorker<>() {
             @Override
             protected Void doInBackground() {
+                prefetcher.beginUserLoad();
                 try {
-                    for (Channel channel : api.getChannelsMap().values()) {
-                        if (channel.isProgramCached()) {
-                            String channelId = String.valueOf(channel.getId());
-
-                            // Get the current date and time
-                            LocalDateTime now = LocalDateTime.now();
-                            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-
-                            // Determine the URLs for the current date and 12 hours ahead
-                            LocalDateTime twelveHoursPast = now.minusHours(12);
-                            String scheduleUrl1 = "http://api.sr.se/v2/scheduledepisodes?channelid=" + channelId + "&date=" + twelveHoursPast.format(formatter) + "&pagination=false";
-                            LocalDateTime twelveHoursLater = now.plusHours(12);
-                            String scheduleUrl2 = "http://api.sr.se/v2/scheduledepisodes?channelid=" + channelId + "&date=" + twelveHoursLater.format(formatter) + "&pagination=false";
-                            isInternetAvailable();
-                            if (channel.getProgrammes().size() > 0 && network) {
-                                channel.getProgrammes().clear();
-                            }
-                            // Fetch data from the first URL
-                            URL url1 = new URL(scheduleUrl1);
-                            if(network){
-                                parseSchedule(url1, channel);
-                            }
-
-                            // Fetch data from the second URL
-                            URL url2 = new URL(scheduleUrl2);
-                            if(network){
-                                parseSchedule(url2, channel);
-                            }
-                        }
+                    List<Channel> cachedChannels = periodicChannels();
+                    // All channels are fetched in parallel and swapped in once complete
+                    int refreshed = revalidate ? refreshEngine.refresh(cachedChannels, RequestScheduler.Priority.REFRESH)
+                            : refreshEngine.advance(cachedChannels);
+                    if (refreshed < cachedChannels.size()) {
+                        SwingUtilities.invokeLater(() -> gui.displayPopupMessage("Kunde inte uppdatera tablån"));
                     }
+                    schedulesUpdated();
                 } catch (Exception e) {
+                    Metrics.recordError("parseScheduleEpisodes", e);
                     SwingUtilities.invokeLater(() -> gui.displayPopupMessage("Kunde inte uppdatera tablån"));
+                } finally {
+                    prefetcher.endUserLoad();
                 }
                 return null;
             }
@@ -331,9 +568,11 @@ public class ActionHandler implements ActionListener, ListSelectionListener {
                     if(latestChannel.getProgrammes() == null){
                     }
                     else{
-                        gui.updateSchedulePanel(latestChannel.getProgrammes());
-                        isInternetAvailable();
-                        if(network){
+                        if (latestChannel.getProgrammes() != shownProgrammes) {
+                            gui.updateSchedulePanel(latestChannel.getProgrammes());
+                        }
+                        // The circuit of the API host opens when the refresh could not reach it
+                        if(ConnectivityMonitor.forHost(ApiParser.API_HOST).isAvailable()){
                             gui.updateInfoPanel(latestChannel.getImageUrl(), latestChannel.getAbout());
                         }
                         else{
@@ -345,6 +584,8 @@ public class ActionHandler implements ActionListener, ListSelectionListener {
                 }
                 update=false;
                 gui.unlockUpdate();
+                SCHEDULE_EPISODES_LATENCY.recordSince(start);
+                prefetcher.start(new ArrayList<>(api.getChannelsMap().values()), () -> schedulesUpdated());
             }
         };
 
@@ -357,64 +598,23 @@ public class ActionHandler implements ActionListener, ListSelectionListener {
      * @param program Program object to display information about.
      */
     public void displayInfoPopup(Program program) {
-        SwingWorker<Void, Void> worker = new SwingWorker<>() {
+        SwingWorker<ImageIcon, Void> worker = new SwingWorker<>() {
             @Override
-            protected Void doInBackground() {
-                try {
-                    if (program.getImageUrl() == null) {
-                        try {
-                            String channelId = String.valueOf(latestChannel.getId());
-
-                            String scheduleUrl = "http://api.sr.se/api/v2/scheduledepisodes?channelid=" + channelId + "&pagination=false";
-                            URL url = new URL(scheduleUrl);
-
-                            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-                            DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-                            Document doc = dBuilder.parse(url.openStream());
-                            doc.getDocumentElement().normalize();
-
-                            NodeList nodeList = doc.getElementsByTagName("scheduledepisode");
-
-                            for (int i = 0; i < nodeList.getLength(); i++) {
-                                Node node = nodeList.item(i);
-                                if (node.getNodeType() == Node.ELEMENT_NODE) {
-                                    Element episodeElement = (Element) node;
-                                    String test1 = episodeElement.getElementsByTagName("title").item(0).getTextContent();
-                                    String test2 = program.getTitle();
-                                    if (test1.equals(test2)) {
-                                        NodeList imageUrlNodes = episodeElement.getElementsByTagName("imageurl");
-                                        if (imageUrlNodes.getLength() > 0) {
-                                            String imageUrl = imageUrlNodes.item(0).getTextContent();
-                                            if (!imageUrl.isEmpty()) {
-                                                program.setImageUrl(imageUrl);
-                                            } else {
-                                                // Handle case where imageUrl is empty
-                                            }
-                                        } else {
-                                            // Handle case where "imageurl" element is missing
-                                        }
-                                        break;
-                                    }
-                                }
-                            }
-                        } catch (IOException ioException) {
-                            api.handleIOException(latestChannel);
-                        }
-
-                    }
-                } catch (Exception e) {
-
+            protected ImageIcon doInBackground() {
+                // Load the image here so the dialog does not block the EDT on the download
+                if (program.getImageUrl() != null) {
+                    return createImageIcon(program.getImageUrl());
                 }
-                return null;
+                return createImageIcon("https://i3.radionomy.com/radios/400/c16d64a1-3ef8-473e-94f1-13651dcfa1f2.jpg");
             }
 
             @Override
             protected void done() {
                 ImageIcon icon;
-                if (program.getImageUrl() != null) {
-                    icon = createImageIcon(program.getImageUrl());
-                } else {
-                    icon = createImageIcon("https://i3.radionomy.com/radios/400/c16d64a1-3ef8-473e-94f1-13651dcfa1f2.jpg");
+                try {
+                    icon = get();
+                } catch (Exception e) {
+                    icon = null;
                 }
                 JOptionPane.showMessageDialog(gui, program.getDescription(), program.getTitle(), JOptionPane.INFORMATION_MESSAGE, icon);
             }
@@ -429,60 +629,12 @@ public class ActionHandler implements ActionListener, ListSelectionListener {
      * @param imageUrl URL of the image.
      * @return ImageIcon object if image is successfully loaded, null otherwise.
      */
-    private static ImageIcon createImageIcon(String imageUrl) {
+    private ImageIcon createImageIcon(String imageUrl) {
         try {
-            // Fetch the image from the URL
-            Image image = new ImageIcon(new URL(imageUrl)).getImage();
-
-            // Scale the image to fit within 100x100 pixels
-            Image scaledImage = image.getScaledInstance(100, 100, Image.SCALE_SMOOTH);
-
-            // Create and return the ImageIcon
-            return new ImageIcon(scaledImage);
+            // Fetch the image scaled to fit within 100x100 pixels, reusing earlier downloads
+            return imageCache.getIcon(imageUrl, 100, 100);
         } catch (Exception e) {
             return null;
         }
     }
-
-    /**
-     * Parses the schedule from the given URL and adds programs to the specified channel.
-     *
-     * @param url     URL to parse schedule from.
-     * @param channel Channel to add programs to.
-     */
-    private void parseSchedule(URL url, Channel channel) {
-        try {
-            Document doc = api.getDocumentFromUrl(url);
-            NodeList nodeList = doc.getElementsByTagName("scheduledepisode");
-
-            for (int i = 0; i < nodeList.getLength(); i++) {
-                Node node = nodeList.item(i);
-
-                if (node.getNodeType() == Node.ELEMENT_NODE) {
-                    Element episodeElement = (Element) node;
-                    api.parseAndAddProgram(channel, episodeElement);
-                }
-            }
-        } catch (IOException ioException) {
-            // Handle IO exception
-            SwingUtilities.invokeLater(() -> gui.displayPopupMessage("Error: kan inte skapa anslutning till server"));
-        } catch (ParserConfigurationException e) {
-            throw new RuntimeException(e);
-        } catch (ParseException e) {
-            throw new RuntimeException(e);
-        } catch (SAXException e) {
-            throw new RuntimeException(e);
-        }
-    }
-    public void isInternetAvailable() {
-        try {
-            URL url = new URL("http://www.google.com");
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.connect();
-            network = true;
-            connection.disconnect();
-        } catch (Exception e) {
-            network = false;
-        }
-    }
 }
@@ -1,7 +1,10 @@
-import javax.swing.*;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -9,12 +12,16 @@ import org.w3c.dom.NodeList;
 import org.w3c.dom.Node;
 import org.xml.sax.SAXException;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
 import java.net.URL;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
@@ -29,8 +36,17 @@ public class ApiParser {
     private List<String> channelNamesMinoritet;
     private Map<Integer, Channel> channelsMap;
 
+    private boolean streamingParser;    // Whether schedules are parsed with StAX instead of DOM
+    private volatile Clock clock;       // The current time the time range is centred on
+
+    public static final String API_HOST = "api.sr.se";  // Host of the Sveriges Radio API
+
     private static final long TWELVE_HOURS_IN_MILLIS = 12 * 60 * 60 * 1000; // 12 hours in milliseconds
 
+    private static final XMLInputFactory XML_INPUT_FACTORY = createInputFactory();
+
+    private static final LatencyHistogram CHANNELS_LATENCY = Metrics.histogram("parse.channels");
+
     /**
      * Constructor to create a ApiParser object with essential attributes.
      */
@@ -40,76 +56,331 @@ public class ApiParser {
         channelNamesExtrakanaler = new ArrayList<>();
         channelNamesFlerkanaler = new ArrayList<>();
         channelNamesMinoritet = new ArrayList<>();
-        channelsMap = new HashMap<>();
-        Date currentTime = new Date();
+        channelsMap = new ConcurrentHashMap<>();
+        // The DOM parser can be selected with -Dradioplan.parser=dom to compare the two paths
+        streamingParser = !"dom".equalsIgnoreCase(System.getProperty("radioplan.parser"));
+        clock = Clock.systemDefaultZone();
+    }
+
+    /**
+     * Creates the shared StAX factory. Factories are thread-safe once configured.
+     *
+     * @return The configured XMLInputFactory.
+     */
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+
+    /**
+     * Selects which parser is used for schedule responses.
+     *
+     * @param streamingParser True to use the streaming StAX parser, false to use DOM.
+     */
+    public void setStreamingParser(boolean streamingParser) {
+        this.streamingParser = streamingParser;
+    }
+
+    /**
+     * Checks whether schedule responses are parsed with the streaming parser.
+     *
+     * @return True if the StAX parser is used, false if DOM is used.
+     */
+    public boolean isStreamingParser() {
+        return streamingParser;
+    }
+
+    /**
+     * Sets the clock the time range of the schedules is centred on, e.g. the clock of a
+     * replayed recording.
+     *
+     * @param clock The clock.
+     */
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Getter method to retrieve the clock the time range of the schedules is centred on.
+     * @return The clock, by default the system clock.
+     */
+    public Clock getClock() {
+        return clock;
     }
 
     /**
-     * Retrieves a Document object from the given URL.
+     * Parses a scheduledepisodes response into the programs of the given channel.
+     * Uses the streaming parser unless the DOM parser has been selected.
+     * The channel itself is not modified, so the result can be swapped in atomically.
+     * All programs of the response are returned, see filterTimeRange.
      *
-     * @param url The URL from which to fetch the document.
-     * @return Document object representing the XML document.
+     * @param in      The response body.
+     * @param channel The channel whose schedule is parsed.
+     * @return The programs of the channel.
      * @throws IOException                  If an I/O error occurs.
-     * @throws SAXException                 If any parsing errors occur.
+     * @throws SAXException                 If the DOM parser fails.
      * @throws ParserConfigurationException If a DocumentBuilder cannot be created.
+     * @throws XMLStreamException           If the streaming parser fails.
      */
-    public Document getDocumentFromUrl(URL url) throws IOException, SAXException, ParserConfigurationException {
+    public List<Program> parseSchedule(InputStream in, Channel channel)
+            throws IOException, SAXException, ParserConfigurationException, XMLStreamException {
+        if (streamingParser) {
+            return parseScheduleStream(in, channel);
+        }
+        DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
+        DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
+        Document doc = dBuilder.parse(in);
+        NodeList nodeList = doc.getElementsByTagName("scheduledepisode");
+        List<Program> programs = new ArrayList<>();
+
+        for (int i = 0; i < nodeList.getLength(); i++) {
+            Node node = nodeList.item(i);
+
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                Element episodeElement = (Element) node;
+                if (getChannelId(episodeElement) == channel.getId()) {
+                    programs.add(createProgram(episodeElement));
+                }
+            }
+        }
+        return programs;
+    }
+
+    /**
+     * Parses a scheduledepisodes response in a single pass without building a DOM.
+     * Only the fields of the current episode are held in memory.
+     *
+     * @param in      The response body.
+     * @param channel The channel whose schedule is parsed.
+     * @return The programs of the channel.
+     * @throws XMLStreamException If the XML is malformed.
+     */
+    private List<Program> parseScheduleStream(InputStream in, Channel channel) throws XMLStreamException {
+        XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+        List<Program> programs = new ArrayList<>();
+        String wantedChannelId = String.valueOf(channel.getId());
         try {
-            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-            return dBuilder.parse(url.openStream());
-        } catch (FileNotFoundException e) {
-            // Handle error
+            String title = null;
+            String subtitle = null;
+            String description = null;
+            String startTimeString = null;
+            String endTimeString = null;
+            String channelId = null;
+            String episodeId = null;
+            String imageUrl = null;
+            String programId = null;
+            String programName = null;
+            int depth = 0;  // Depth below the current scheduledepisode, 0 when outside one
+
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if (depth == 0) {
+                        if ("scheduledepisode".equals(reader.getLocalName())) {
+                            depth = 1;
+                            title = null;
+                            subtitle = null;
+                            description = null;
+                            startTimeString = null;
+                            endTimeString = null;
+                            channelId = null;
+                            episodeId = null;
+                            imageUrl = null;
+                            programId = null;
+                            programName = null;
+                        }
+                        continue;
+                    }
+                    depth++;
+                    if (depth != 2) {
+                        continue;
+                    }
+                    switch (reader.getLocalName()) {
+                        case "title":
+                            title = reader.getElementText();
+                            depth--;
+                            break;
+                        case "subtitle":
+                            subtitle = reader.getElementText();
+                            depth--;
+                            break;
+                        case "description":
+                            description = reader.getElementText();
+                            depth--;
+                            break;
+                        case "starttimeutc":
+                            startTimeString = reader.getElementText();
+                            depth--;
+                            break;
+                        case "endtimeutc":
+                            endTimeString = reader.getElementText();
+                            depth--;
+                            break;
+                        case "episodeid":
+                            episodeId = reader.getElementText();
+                            depth--;
+                            break;
+                        case "imageurl":
+                            imageUrl = reader.getElementText();
+                            depth--;
+                            break;
+                        case "program":
+                            programId = reader.getAttributeValue(null, "id");
+                            programName = reader.getAttributeValue(null, "name");
+                            break;
+                        case "channel":
+                            channelId = reader.getAttributeValue(null, "id");
+                            break;
+                        default:
+                            break;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && depth > 0) {
+                    depth--;
+                    if (depth == 0 && title != null && startTimeString != null
+                            && wantedChannelId.equals(channelId)) {
+                        Program program = createProgram(title, subtitle, description == null ? "" : description,
+                                startTimeString, endTimeString);
+                        setMetadata(program, episodeId, imageUrl, programId, programName);
+                        programs.add(program);
+                    }
+                }
+            }
+        } finally {
+            reader.close();
         }
-        return null;
+        return programs;
     }
 
     /**
-     * Parses an episode element and adds the corresponding program to the channel's program list.
+     * Reads the id of the channel an episode element belongs to.
      *
-     * @param channel        The channel to which the program belongs.
      * @param episodeElement The XML element representing the episode.
-     * @throws ParseException If an error occurs during parsing.
+     * @return The channel id.
      */
-    public void parseAndAddProgram(Channel channel, Element episodeElement) throws ParseException, ParseException {
+    private int getChannelId(Element episodeElement) {
+        Element channelElement = (Element) episodeElement.getElementsByTagName("channel").item(0);
+        return Integer.parseInt(channelElement.getAttribute("id"));
+    }
+
+    /**
+     * Creates a program from an episode element.
+     *
+     * @param episodeElement The XML element representing the episode.
+     * @return The program.
+     */
+    private Program createProgram(Element episodeElement) {
         String title = episodeElement.getElementsByTagName("title").item(0).getTextContent();
         String subtitle = null;
         String description = getDescription(episodeElement);
         String startTimeString = episodeElement.getElementsByTagName("starttimeutc").item(0).getTextContent();
         String endTimeString = episodeElement.getElementsByTagName("endtimeutc").item(0).getTextContent();
 
-        if (description == null) {
-            description = "Kunde inte hitta beskrivning till program";
-        }
-
         NodeList subtitleList = episodeElement.getElementsByTagName("subtitle");
         if (subtitleList.getLength() > 0) {
             subtitle = subtitleList.item(0).getTextContent();
         }
-        if (subtitle != null) {
-            title = title + " " + subtitle;
+        Program program = createProgram(title, subtitle, description, startTimeString, endTimeString);
+
+        String programId = null;
+        String programName = null;
+        Element programElement = (Element) episodeElement.getElementsByTagName("program").item(0);
+        if (programElement != null) {
+            programId = programElement.getAttribute("id");
+            programName = programElement.getAttribute("name");
         }
+        setMetadata(program, getNodeValue(episodeElement, "episodeid"), getNodeValue(episodeElement, "imageurl"),
+                programId, programName);
+        return program;
+    }
 
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-        Date startTime = dateFormat.parse(startTimeString);
+    /**
+     * Stores the episode metadata the schedule table does not show, so that nothing has to be
+     * fetched again when a program is opened. Shared by the DOM and the streaming parser.
+     *
+     * @param program     The program to fill in.
+     * @param episodeId   The episodeid element, or null.
+     * @param imageUrl    The imageurl element, or null.
+     * @param programId   The id attribute of the program element, or null.
+     * @param programName The name attribute of the program element, or null.
+     */
+    private void setMetadata(Program program, String episodeId, String imageUrl, String programId,
+                             String programName) {
+        program.setId(parseId(episodeId));
+        if (imageUrl != null && !imageUrl.isEmpty()) {
+            program.setImageUrl(imageUrl);
+        }
+        program.setProgramId(parseId(programId));
+        if (programName != null && !programName.isEmpty()) {
+            program.setProgramName(programName);
+        }
+    }
+
+    /**
+     * Parses an optional numeric id.
+     *
+     * @param value The id as text, or null.
+     * @return The id, or 0 if it is missing or not a number.
+     */
+    private static int parseId(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
 
-        if (isWithinTimeRange(startTime)) {
-            Element channelElement = (Element) episodeElement.getElementsByTagName("channel").item(0);
-            String channelId = channelElement.getAttribute("id");
-            Channel currentChannel = channelsMap.get(Integer.parseInt(channelId));
+    /**
+     * Creates a program from the fields of an episode.
+     * Shared by the DOM and the streaming parser.
+     *
+     * @param title           The title of the episode.
+     * @param subtitle        The subtitle of the episode, or null.
+     * @param description     The description of the episode, empty if it has none.
+     * @param startTimeString The start time in UTC.
+     * @param endTimeString   The end time in UTC.
+     * @return The program.
+     */
+    private Program createProgram(String title, String subtitle, String description, String startTimeString,
+                                  String endTimeString) {
+        if (subtitle != null) {
+            title = title + " " + subtitle;
+        }
+        // Times are parsed once here and kept as epoch milliseconds from then on
+        long startTime = TimeFormat.parseUtcMillis(startTimeString);
+        long endTime = endTimeString != null ? TimeFormat.parseUtcMillis(endTimeString) : startTime;
+        return new Program(title, description, startTime, endTime);
+    }
 
-            if (currentChannel != null) {
-                Program program = new Program(title, description, startTimeString, endTimeString);
-                currentChannel.getProgrammes().add(program);
+    /**
+     * Keeps the programs that start within the time range around the current time.
+     * Filtering is done when a schedule is assembled rather than when it is parsed,
+     * so a parsed page can be reused while the time range moves.
+     *
+     * @param programs The programs to filter.
+     * @return The programs that start within the time range, in their original order.
+     */
+    public List<Program> filterTimeRange(List<Program> programs) {
+        long currentTime = clock.millis();
+        List<Program> filtered = new ArrayList<>(programs.size());
+        for (Program program : programs) {
+            if (isWithinTimeRange(program.getStartTime(), currentTime)) {
+                filtered.add(program);
             }
         }
+        return filtered;
     }
 
     /**
      * Retrieves the description of an episode from the given element.
      *
      * @param episodeElement The XML element representing the episode.
-     * @return Description of the episode.
+     * @return Description of the episode, empty if it has none.
      */
     private String getDescription(Element episodeElement) {
         NodeList descriptionNodes = episodeElement.getElementsByTagName("description");
@@ -117,30 +388,26 @@ public class ApiParser {
     }
 
     /**
-     * Handles the case of an IOException for a specific channel.
+     * Handles the case of an IOException for a specific channel. The channel keeps its
+     * previous schedule; the error is recorded in the metrics.
      *
      * @param channel The channel for which the IO exception occurred.
+     * @param e       The exception.
      */
-    public void handleIOException(Channel channel) {
-        //nothing
+    public void handleIOException(Channel channel, IOException e) {
+        Metrics.recordError("io", new IOException(channel.getName() + " (" + channel.getId() + "): " + e, e));
     }
 
     /**
      * Checks if the start time of an episode is within the specified time range.
      *
-     * @param startTime The start time of the episode.
+     * @param startTime   The start time of the episode in epoch milliseconds.
+     * @param currentTime The current time in epoch milliseconds.
      * @return True if the start time is within the time range, otherwise false.
      */
-    private boolean isWithinTimeRange(Date startTime) {
-        // Calculate the current time
-        Date currentTime = new Date();
-
-        // Calculate the time 12 hours before and after the current time
-        Date startTimeMinus12Hours = new Date(startTime.getTime() - TWELVE_HOURS_IN_MILLIS);
-        Date startTimePlus12Hours = new Date(startTime.getTime() + TWELVE_HOURS_IN_MILLIS);
-
-        // Check if the start time is within the specified time range
-        return currentTime.after(startTimeMinus12Hours) && currentTime.before(startTimePlus12Hours);
+    public boolean isWithinTimeRange(long startTime, long currentTime) {
+        // The start time must lie less than 12 hours before or after the current time
+        return startTime > currentTime - TWELVE_HOURS_IN_MILLIS && startTime < currentTime + TWELVE_HOURS_IN_MILLIS;
     }
 
     /**
@@ -161,6 +428,99 @@ public class ApiParser {
         return null;
     }
 
+    /**
+     * Builds the URL of the channel list.
+     *
+     * @return The URL listing all channels.
+     * @throws MalformedURLException If the URL cannot be built.
+     */
+    public URL getChannelsUrl() throws MalformedURLException {
+        return new URL("http://" + API_HOST + "/api/v2/channels/?pagination=false");
+    }
+
+    /**
+     * Parses a channels response and applies it to the channel map. Channels whose
+     * catalog entry is unchanged are kept as they are. A changed channel is replaced but
+     * keeps the schedule loaded for it, e.g. from the snapshot, and channels missing
+     * from the response are removed.
+     *
+     * @param in The response body.
+     * @return The channels added, removed and changed.
+     * @throws IOException                  If an I/O error occurs.
+     * @throws SAXException                 If the XML is malformed.
+     * @throws ParserConfigurationException If a DocumentBuilder cannot be created.
+     */
+    public ChannelCatalog.Diff parseChannels(InputStream in) throws IOException, SAXException, ParserConfigurationException {
+        long start = System.nanoTime();
+        DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
+        DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
+        Document doc = dBuilder.parse(in);
+        doc.getDocumentElement().normalize();
+
+        NodeList nodeList = doc.getElementsByTagName("channel");
+        ChannelCatalog.Diff diff = new ChannelCatalog.Diff();
+        Set<Integer> listed = new HashSet<>();
+
+        for (int i = 0; i < nodeList.getLength(); i++) {
+            Node node = nodeList.item(i);
+
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                String channelName = node.getAttributes().getNamedItem("name").getNodeValue();
+                int channelId = Integer.parseInt(node.getAttributes().getNamedItem("id").getNodeValue());
+                Channel channel = new Channel(channelName, channelId, getNodeValue(node, "channeltype"),
+                        getNodeValue(node, "image"), getNodeValue(node, "tagline"));
+
+                listed.add(channelId);
+                Channel previous = channelsMap.get(channelId);
+                if (previous == null) {
+                    channelsMap.put(channelId, channel);
+                    diff.add(channel);
+                } else if (!previous.hasSameEntry(channel)) {
+                    channel.setProgrammes(previous.getProgrammes());
+                    channel.setProgramCached(previous.isProgramCached());
+                    channelsMap.put(channelId, channel);
+                    diff.change(previous, channel);
+                }
+            }
+        }
+        // An empty list is more likely a broken response than the end of every channel
+        for (Channel channel : listed.isEmpty() ? List.<Channel>of() : new ArrayList<>(channelsMap.values())) {
+            if (!listed.contains(channel.getId())) {
+                channelsMap.remove(channel.getId());
+                diff.remove(channel);
+            }
+        }
+        CHANNELS_LATENCY.recordSince(start);
+        return diff;
+    }
+
+    /**
+     * Builds the scheduledepisodes URL for one channel and day.
+     *
+     * @param channelId The id of the channel.
+     * @param date      The day of the schedule.
+     * @return The URL of the day's schedule.
+     * @throws MalformedURLException If the URL cannot be built.
+     */
+    public URL getScheduleUrl(int channelId, LocalDate date) throws MalformedURLException {
+        return new URL("http://" + API_HOST + "/v2/scheduledepisodes?channelid=" + channelId
+                + "&date=" + date.format(DateTimeFormatter.ISO_LOCAL_DATE) + "&pagination=false");
+    }
+
+    /**
+     * Determines the days whose schedules cover the time range around the given time,
+     * that is the days 12 hours before and 12 hours after it.
+     *
+     * @param now The current time.
+     * @return The days to fetch, oldest first.
+     */
+    public List<LocalDate> getScheduleDays(LocalDateTime now) {
+        List<LocalDate> days = new ArrayList<>(2);
+        days.add(now.minusHours(12).toLocalDate());
+        days.add(now.plusHours(12).toLocalDate());
+        return days;
+    }
+
     /**
      * Retrieves the map of channels.
      *
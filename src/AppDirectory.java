@@ -0,0 +1,25 @@
+import java.io.File;
+
+/**
+ * Locates the directory where RadioPlan keeps its local files.
+ * Defaults to ~/.radioplan and can be moved with -Dradioplan.home.
+ */
+public class AppDirectory {
+
+    private AppDirectory() {
+    }
+
+    /**
+     * Resolves a file inside the application directory, creating the directory if needed.
+     *
+     * @param name The name of the file.
+     * @return The file in the application directory.
+     */
+    public static File getFile(String name) {
+        String home = System.getProperty("radioplan.home",
+                System.getProperty("user.home") + File.separator + ".radioplan");
+        File directory = new File(home);
+        directory.mkdirs();
+        return new File(directory, name);
+    }
+}
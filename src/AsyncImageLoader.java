@@ -0,0 +1,110 @@
+import javax.swing.ImageIcon;
+import javax.swing.JLabel;
+import javax.swing.SwingUtilities;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads images into labels without blocking the Event Dispatch Thread.
+ *
+ * The label shows a placeholder at once while the image is downloaded and decoded on a
+ * background pool. Only the latest request per label may set its icon: starting a new
+ * request cancels the previous one, and a stale result that still arrives is ignored.
+ * All methods must be called on the Event Dispatch Thread.
+ */
+public class AsyncImageLoader {
+
+    private static final int THREADS = 2;   // Parallel image downloads
+
+    private final ImageCache imageCache;
+    private final ExecutorService executor;
+    private final Map<JLabel, Future<?>> requests;        // Latest request per label
+    private final Map<String, ImageIcon> placeholders;    // Placeholder per size
+
+    /**
+     * Constructor to create an AsyncImageLoader.
+     *
+     * @param imageCache The cache images are loaded through.
+     */
+    public AsyncImageLoader(ImageCache imageCache) {
+        this.imageCache = imageCache;
+        this.requests = new HashMap<>();
+        this.placeholders = new HashMap<>();
+        this.executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "image-loader-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Shows a placeholder in the label and loads the image in the background.
+     *
+     * @param label    The label to show the image in.
+     * @param imageUrl The URL of the image.
+     * @param width    The width to scale to.
+     * @param height   The height to scale to.
+     * @param onError  Run on the Event Dispatch Thread if this request fails, may be null.
+     */
+    public void load(JLabel label, String imageUrl, int width, int height, Runnable onError) {
+        Future<?> previous = requests.remove(label);
+        if (previous != null) {
+            previous.cancel(true);
+        }
+        label.setIcon(getPlaceholder(width, height));
+
+        Future<?>[] self = new Future<?>[1];
+        self[0] = executor.submit(() -> {
+            ImageIcon icon = null;
+            try {
+                icon = imageCache.getIcon(imageUrl, width, height);
+            } catch (Exception e) {
+                // Reported below unless the request is stale
+            }
+            ImageIcon result = icon;
+            SwingUtilities.invokeLater(() -> {
+                if (requests.get(label) != self[0]) {
+                    return;     // A newer request owns the label
+                }
+                requests.remove(label);
+                if (result != null) {
+                    label.setIcon(result);
+                } else if (onError != null) {
+                    onError.run();
+                }
+            });
+        });
+        requests.put(label, self[0]);
+    }
+
+    /**
+     * Retrieves a plain placeholder of the given size, created once per size.
+     *
+     * @param width  The width of the placeholder.
+     * @param height The height of the placeholder.
+     * @return The placeholder icon.
+     */
+    private ImageIcon getPlaceholder(int width, int height) {
+        return placeholders.computeIfAbsent(width + "x" + height, key -> {
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = image.createGraphics();
+            graphics.setColor(new Color(40, 40, 40));
+            graphics.fillRect(0, 0, width, height);
+            graphics.dispose();
+            return new ImageIcon(image);
+        });
+    }
+}
@@ -1,5 +1,6 @@
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * Represents a television channel with various attributes like
@@ -14,7 +15,7 @@ public class Channel {
 
     private boolean programCached;      // Indicates whether programs for this channel are cached
 
-    private List<Program> programmes;   // List of programs scheduled on the channel
+    private volatile List<Program> programmes;   // List of programs scheduled on the channel
 
     /**
      * Constructor to create a Channel object with essential attributes.
@@ -58,6 +59,14 @@ public class Channel {
         return channelType;
     }
 
+    /**
+     * Getter method to retrieve the type of the channel as an enum.
+     * @return The type of the channel, or null if it is unknown.
+     */
+    public ChannelType getType() {
+        return ChannelType.fromApiName(channelType);
+    }
+
     /**
      * Getter method to retrieve the image URL of the channel.
      * @return The image URL of the channel.
@@ -82,6 +91,15 @@ public class Channel {
         return programmes;
     }
 
+    /**
+     * Setter method to replace the list of programs scheduled on the channel.
+     * The list is swapped in as a whole so readers never see a half-updated schedule.
+     * @param programmes The new list of programs.
+     */
+    public void setProgrammes(List<Program> programmes) {
+        this.programmes = programmes;
+    }
+
     /**
      * Setter method to set whether programs for this channel are cached.
      * @param programCached Indicates whether programs for this channel are cached.
@@ -97,4 +115,15 @@ public class Channel {
     public boolean isProgramCached() {
         return programCached;
     }
+
+    /**
+     * Checks whether another channel has the same catalog entry, that is the same id,
+     * name, type, image and tagline. Schedules are not compared.
+     * @param other The channel to compare with.
+     * @return True if the catalog entries are equal.
+     */
+    public boolean hasSameEntry(Channel other) {
+        return id == other.id && Objects.equals(name, other.name) && Objects.equals(channelType, other.channelType)
+                && Objects.equals(imageUrl, other.imageUrl) && Objects.equals(about, other.about);
+    }
 }
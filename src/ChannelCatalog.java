@@ -0,0 +1,201 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Stores the channel catalog, that is the name, id, type, image and tagline of every
+ * channel, so the channel menus can be filled at startup before the channel list has
+ * been downloaded. It is kept apart from the schedule snapshot, which is larger, written
+ * every hour and discarded whenever its layout changes.
+ *
+ * The file starts with a magic number and a format version followed by the channels.
+ * Strings are stored as a length in bytes followed by UTF-8, with -1 meaning null.
+ */
+public class ChannelCatalog {
+
+    private static final int MAGIC = 0x52504C43;    // "RPLC"
+    private static final int VERSION = 1;           // Bumped whenever the layout changes
+
+    private ChannelCatalog() {
+    }
+
+    /**
+     * Writes the catalog entries of the channels to the given file. The file is replaced
+     * atomically so a crash during saving never leaves a truncated catalog behind.
+     *
+     * @param channels The channels to save.
+     * @param file     The catalog file.
+     * @throws IOException If the file cannot be written.
+     */
+    public static synchronized void save(Collection<Channel> channels, File file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 * 1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        List<Channel> copy = new ArrayList<>(channels);
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(copy.size());
+        for (Channel channel : copy) {
+            out.writeInt(channel.getId());
+            writeString(out, channel.getName());
+            writeString(out, channel.getChannelType());
+            writeString(out, channel.getImageUrl());
+            writeString(out, channel.getAbout());
+        }
+        out.flush();
+
+        File temp = new File(file.getPath() + ".tmp");
+        Files.write(temp.toPath(), bytes.toByteArray());
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the channels from the given file. The channels have no schedules.
+     *
+     * @param file The catalog file.
+     * @return The saved channels, or an empty list if the file is missing, outdated or corrupt.
+     */
+    public static List<Channel> load(File file) {
+        List<Channel> channels = new ArrayList<>();
+        if (!file.isFile()) {
+            return channels;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file.toPath())))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return channels;
+            }
+            int channelCount = in.readInt();
+            for (int i = 0; i < channelCount; i++) {
+                int id = in.readInt();
+                channels.add(new Channel(readString(in), id, readString(in), readString(in), readString(in)));
+            }
+        } catch (IOException | IllegalArgumentException | NegativeArraySizeException e) {
+            channels.clear();
+        }
+        return channels;
+    }
+
+    /**
+     * Writes a nullable string as its UTF-8 length followed by the bytes.
+     *
+     * @param out   The output to write to.
+     * @param value The string, or null.
+     * @throws IOException If writing fails.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] data = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    /**
+     * Reads a nullable string written by writeString.
+     *
+     * @param in The input to read from.
+     * @return The string, or null.
+     * @throws IOException If the input ends early or the length is corrupt.
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        // A corrupt length must not allocate more than is left of the file
+        if (length > in.available()) {
+            throw new EOFException("String of " + length + " bytes with " + in.available() + " left");
+        }
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The differences between the channels held and a downloaded channel list.
+     */
+    public static class Diff {
+        private final List<Channel> added;      // Channels that were not held before
+        private final List<Channel> removed;    // Held channels missing from the list
+        private final List<Channel[]> changed;  // Previous and new channel whose entries differ
+
+        /**
+         * Constructor to create an empty Diff.
+         */
+        public Diff() {
+            this.added = new ArrayList<>();
+            this.removed = new ArrayList<>();
+            this.changed = new ArrayList<>();
+        }
+
+        /**
+         * Getter method to retrieve the channels that were added.
+         * @return The new channels.
+         */
+        public List<Channel> getAdded() {
+            return Collections.unmodifiableList(added);
+        }
+
+        /**
+         * Getter method to retrieve the channels that were removed.
+         * @return The channels no longer in the list.
+         */
+        public List<Channel> getRemoved() {
+            return Collections.unmodifiableList(removed);
+        }
+
+        /**
+         * Getter method to retrieve the channels whose catalog entries changed.
+         * @return Pairs of the previous and the new channel.
+         */
+        public List<Channel[]> getChanged() {
+            return Collections.unmodifiableList(changed);
+        }
+
+        /**
+         * Checks whether the channel list differs at all.
+         * @return True if nothing was added, removed or changed.
+         */
+        public boolean isEmpty() {
+            return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+        }
+
+        /**
+         * Records a channel that was added.
+         * @param channel The new channel.
+         */
+        void add(Channel channel) {
+            added.add(channel);
+        }
+
+        /**
+         * Records a channel that was removed.
+         * @param channel The channel no longer in the list.
+         */
+        void remove(Channel channel) {
+            removed.add(channel);
+        }
+
+        /**
+         * Records a channel whose catalog entry changed.
+         * @param previous The channel held before.
+         * @param channel  The channel replacing it.
+         */
+        void change(Channel previous, Channel channel) {
+            changed.add(new Channel[]{previous, channel});
+        }
+    }
+}
@@ -0,0 +1,61 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The channel types of the API, in the order their submenus are shown.
+ */
+public enum ChannelType {
+    RIKSKANAL("Rikskanal", "Rikskanaler"),
+    LOKAL_KANAL("Lokal kanal", "Lokala kanaler"),
+    EXTRAKANALER("Extrakanaler", "Extrakanaler"),
+    FLER_KANALER("Fler kanaler", "Fler kanaler"),
+    MINORITET("Minoritet och språk", "Minoritet och språk");
+
+    private static final Map<String, ChannelType> BY_API_NAME = new HashMap<>();
+
+    static {
+        for (ChannelType type : values()) {
+            BY_API_NAME.put(type.apiName, type);
+        }
+    }
+
+    private final String apiName;     // The channeltype value in the API
+    private final String menuTitle;   // The title of the submenu
+
+    /**
+     * Constructor to create a ChannelType.
+     *
+     * @param apiName   The channeltype value in the API.
+     * @param menuTitle The title of the submenu.
+     */
+    ChannelType(String apiName, String menuTitle) {
+        this.apiName = apiName;
+        this.menuTitle = menuTitle;
+    }
+
+    /**
+     * Looks up a channel type by its value in the API.
+     *
+     * @param apiName The channeltype value, may be null.
+     * @return The channel type, or null if it is unknown.
+     */
+    public static ChannelType fromApiName(String apiName) {
+        return apiName == null ? null : BY_API_NAME.get(apiName);
+    }
+
+    /**
+     * Getter method to retrieve the channeltype value in the API.
+     * @return The API name.
+     */
+    public String getApiName() {
+        return apiName;
+    }
+
+    /**
+     * Getter method to retrieve the title of the submenu.
+     * @return The menu title.
+     */
+    public String getMenuTitle() {
+        return menuTitle;
+    }
+}
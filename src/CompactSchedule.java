@@ -0,0 +1,270 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * Memory-compact, immutable schedule. Instead of one Program object per episode the
+ * fields are kept in parallel arrays: primitive arrays for times and ids, and arrays of
+ * strings taken from a StringPool, so a title or description that recurs across days
+ * and channels is stored once.
+ *
+ * The schedule is a List of Program so it can be used wherever a schedule is expected.
+ * get creates a new Program every time; code that only needs times or titles should use
+ * the accessors taking an index instead.
+ */
+public class CompactSchedule extends AbstractList<Program> implements RandomAccess {
+
+    private static final CompactSchedule EMPTY = new Builder(0).build();
+
+    private final int size;
+    private final long[] startTimes;        // Start times in epoch milliseconds
+    private final long[] endTimes;          // End times in epoch milliseconds
+    private final int[] ids;                // Episode ids, 0 if none
+    private final int[] programIds;         // Show ids, 0 if unknown
+    private final String[] titles;          // Pooled titles
+    private final String[] subtitles;       // Pooled subtitles, null if none
+    private final String[] descriptions;    // Pooled descriptions
+    private final String[] imageUrls;       // Pooled image URLs, null if none
+    private final String[] programNames;    // Pooled show names, null if unknown
+
+    /**
+     * Constructor to create a CompactSchedule from the filled arrays of a builder.
+     *
+     * @param builder The builder.
+     */
+    private CompactSchedule(Builder builder) {
+        this.size = builder.size;
+        this.startTimes = Arrays.copyOf(builder.startTimes, size);
+        this.endTimes = Arrays.copyOf(builder.endTimes, size);
+        this.ids = Arrays.copyOf(builder.ids, size);
+        this.programIds = Arrays.copyOf(builder.programIds, size);
+        this.titles = Arrays.copyOf(builder.titles, size);
+        this.subtitles = Arrays.copyOf(builder.subtitles, size);
+        this.descriptions = Arrays.copyOf(builder.descriptions, size);
+        this.imageUrls = Arrays.copyOf(builder.imageUrls, size);
+        this.programNames = Arrays.copyOf(builder.programNames, size);
+    }
+
+    /**
+     * Creates a compact copy of a schedule with its strings taken from the shared pool.
+     *
+     * @param programs The programs, in schedule order.
+     * @return The compact schedule, or the argument itself if it already is one.
+     */
+    public static CompactSchedule of(List<Program> programs) {
+        if (programs instanceof CompactSchedule) {
+            return (CompactSchedule) programs;
+        }
+        Builder builder = new Builder(programs.size());
+        for (Program program : programs) {
+            builder.add(program);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Retrieves an empty schedule.
+     *
+     * @return The empty schedule.
+     */
+    public static CompactSchedule empty() {
+        return EMPTY;
+    }
+
+    @Override
+    public Program get(int index) {
+        Objects.checkIndex(index, size);
+        Program program = new Program(titles[index], descriptions[index], startTimes[index], endTimes[index]);
+        program.setSubtitle(subtitles[index]);
+        program.setImageUrl(imageUrls[index]);
+        program.setId(ids[index]);
+        program.setProgramId(programIds[index]);
+        program.setProgramName(programNames[index]);
+        return program;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Getter method to retrieve the start time of a program without creating it.
+     * @param index The index of the program.
+     * @return The start time in epoch milliseconds.
+     */
+    public long getStartTime(int index) {
+        Objects.checkIndex(index, size);
+        return startTimes[index];
+    }
+
+    /**
+     * Getter method to retrieve the end time of a program without creating it.
+     * @param index The index of the program.
+     * @return The end time in epoch milliseconds.
+     */
+    public long getEndTime(int index) {
+        Objects.checkIndex(index, size);
+        return endTimes[index];
+    }
+
+    /**
+     * Getter method to retrieve the title of a program without creating it.
+     * @param index The index of the program.
+     * @return The title.
+     */
+    public String getTitle(int index) {
+        Objects.checkIndex(index, size);
+        return titles[index];
+    }
+
+    /**
+     * Getter method to retrieve the subtitle of a program without creating it.
+     * @param index The index of the program.
+     * @return The subtitle, or null if none.
+     */
+    public String getSubtitle(int index) {
+        Objects.checkIndex(index, size);
+        return subtitles[index];
+    }
+
+    /**
+     * Getter method to retrieve the description of a program without creating it.
+     * @param index The index of the program.
+     * @return The description.
+     */
+    public String getDescription(int index) {
+        Objects.checkIndex(index, size);
+        return descriptions[index];
+    }
+
+    /**
+     * Checks whether another schedule holds the same programs with the same content in the
+     * same order. Pooled strings make this mostly a comparison of references.
+     *
+     * @param other The other schedule.
+     * @return True if the schedules are equal field by field.
+     */
+    public boolean sameContent(CompactSchedule other) {
+        return other == this || (other.size == size
+                && Arrays.equals(startTimes, other.startTimes)
+                && Arrays.equals(endTimes, other.endTimes)
+                && Arrays.equals(ids, other.ids)
+                && Arrays.equals(programIds, other.programIds)
+                && Arrays.equals(titles, other.titles)
+                && Arrays.equals(subtitles, other.subtitles)
+                && Arrays.equals(descriptions, other.descriptions)
+                && Arrays.equals(imageUrls, other.imageUrls)
+                && Arrays.equals(programNames, other.programNames));
+    }
+
+    /**
+     * Collects programs into a CompactSchedule, taking their strings from the shared pool.
+     */
+    public static class Builder {
+        private final StringPool pool;      // Pool the strings are taken from
+        private int size;                   // Number of programs added
+        private long[] startTimes;
+        private long[] endTimes;
+        private int[] ids;
+        private int[] programIds;
+        private String[] titles;
+        private String[] subtitles;
+        private String[] descriptions;
+        private String[] imageUrls;
+        private String[] programNames;
+
+        /**
+         * Constructor to create a Builder.
+         *
+         * @param capacity The expected number of programs.
+         */
+        public Builder(int capacity) {
+            this.pool = StringPool.shared();
+            int initial = Math.max(capacity, 4);
+            this.startTimes = new long[initial];
+            this.endTimes = new long[initial];
+            this.ids = new int[initial];
+            this.programIds = new int[initial];
+            this.titles = new String[initial];
+            this.subtitles = new String[initial];
+            this.descriptions = new String[initial];
+            this.imageUrls = new String[initial];
+            this.programNames = new String[initial];
+        }
+
+        /**
+         * Adds a program.
+         *
+         * @param program The program.
+         * @return This builder.
+         */
+        public Builder add(Program program) {
+            int index = next();
+            startTimes[index] = program.getStartTime();
+            endTimes[index] = program.getEndTime();
+            ids[index] = program.getId();
+            programIds[index] = program.getProgramId();
+            titles[index] = pool.intern(program.getTitle());
+            subtitles[index] = pool.intern(program.getSubtitle());
+            descriptions[index] = pool.intern(program.getDescription());
+            imageUrls[index] = pool.intern(program.getImageUrl());
+            programNames[index] = pool.intern(program.getProgramName());
+            return this;
+        }
+
+        /**
+         * Adds a program of another compact schedule without creating a Program for it.
+         *
+         * @param source The schedule holding the program.
+         * @param from   The index of the program in the source.
+         * @return This builder.
+         */
+        public Builder add(CompactSchedule source, int from) {
+            Objects.checkIndex(from, source.size);
+            int index = next();
+            startTimes[index] = source.startTimes[from];
+            endTimes[index] = source.endTimes[from];
+            ids[index] = source.ids[from];
+            programIds[index] = source.programIds[from];
+            titles[index] = source.titles[from];
+            subtitles[index] = source.subtitles[from];
+            descriptions[index] = source.descriptions[from];
+            imageUrls[index] = source.imageUrls[from];
+            programNames[index] = source.programNames[from];
+            return this;
+        }
+
+        /**
+         * Builds the schedule. The arrays are trimmed to the number of programs added.
+         *
+         * @return The schedule.
+         */
+        public CompactSchedule build() {
+            return size == 0 && EMPTY != null ? EMPTY : new CompactSchedule(this);
+        }
+
+        /**
+         * Reserves the index of the next program, growing the arrays when they are full.
+         *
+         * @return The index.
+         */
+        private int next() {
+            if (size == startTimes.length) {
+                int capacity = size + (size >> 1);
+                startTimes = Arrays.copyOf(startTimes, capacity);
+                endTimes = Arrays.copyOf(endTimes, capacity);
+                ids = Arrays.copyOf(ids, capacity);
+                programIds = Arrays.copyOf(programIds, capacity);
+                titles = Arrays.copyOf(titles, capacity);
+                subtitles = Arrays.copyOf(subtitles, capacity);
+                descriptions = Arrays.copyOf(descriptions, capacity);
+                imageUrls = Arrays.copyOf(imageUrls, capacity);
+                programNames = Arrays.copyOf(programNames, capacity);
+            }
+            return size++;
+        }
+    }
+}
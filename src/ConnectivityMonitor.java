@@ -0,0 +1,152 @@
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks whether a host is reachable from the outcome of the requests made to it,
+ * instead of probing the network before every request.
+ *
+ * Each host has a circuit breaker. While closed, requests pass. After a number of
+ * consecutive failures the circuit opens and requests fail fast until a backoff has
+ * passed. Then a single probe request is let through (half-open): if it succeeds the
+ * circuit closes, otherwise it opens again with twice the backoff.
+ */
+public class ConnectivityMonitor {
+
+    /**
+     * The states of a circuit breaker.
+     */
+    public enum State {
+        CLOSED,     // Requests pass
+        OPEN,       // Requests fail fast until the backoff has passed
+        HALF_OPEN   // One probe request is in flight
+    }
+
+    private static final int FAILURE_THRESHOLD = 3;              // Consecutive failures that open the circuit
+    private static final long INITIAL_BACKOFF_MILLIS = 2_000;    // First wait before probing
+    private static final long MAX_BACKOFF_MILLIS = 5 * 60_000;   // Longest wait before probing
+
+    private static final Map<String, ConnectivityMonitor> MONITORS = new ConcurrentHashMap<>();
+
+    private final String host;
+    private State state;
+    private int failures;           // Consecutive failures while closed
+    private long backoffMillis;     // Current wait before probing
+    private long openedAt;          // When the circuit last opened, or the probe started
+
+    /**
+     * Constructor to create a closed monitor for a host.
+     *
+     * @param host The host name.
+     */
+    private ConnectivityMonitor(String host) {
+        this.host = host;
+        this.state = State.CLOSED;
+        this.backoffMillis = INITIAL_BACKOFF_MILLIS;
+    }
+
+    /**
+     * Retrieves the shared monitor of a host.
+     *
+     * @param host The host name, e.g. api.sr.se.
+     * @return The monitor of the host.
+     */
+    public static ConnectivityMonitor forHost(String host) {
+        return MONITORS.computeIfAbsent(host.toLowerCase(), ConnectivityMonitor::new);
+    }
+
+    /**
+     * Asks whether a request to the host may be made now. When the backoff of an open
+     * circuit has passed, the caller becomes the probe and must report the outcome.
+     *
+     * @return True if the request may be made, false if it should fail fast.
+     */
+    public synchronized boolean allowRequest() {
+        long now = System.currentTimeMillis();
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+            case HALF_OPEN:
+                // A probe that never reported back is replaced after another backoff
+                if (now - openedAt >= backoffMillis) {
+                    state = State.HALF_OPEN;
+                    openedAt = now;
+                    return true;
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Records a request that reached the host, which closes the circuit.
+     */
+    public synchronized void recordSuccess() {
+        state = State.CLOSED;
+        failures = 0;
+        backoffMillis = INITIAL_BACKOFF_MILLIS;
+    }
+
+    /**
+     * Records a request that could not reach the host.
+     */
+    public synchronized void recordFailure() {
+        if (state == State.HALF_OPEN) {
+            backoffMillis = Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+            open();
+        } else if (state == State.CLOSED && ++failures >= FAILURE_THRESHOLD) {
+            open();
+        }
+    }
+
+    /**
+     * Opens the circuit.
+     */
+    private void open() {
+        state = State.OPEN;
+        failures = 0;
+        openedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Getter method to retrieve the state of the circuit.
+     * @return The current state.
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Checks whether the host is believed to be reachable.
+     * @return False while the circuit is open, otherwise true.
+     */
+    public synchronized boolean isAvailable() {
+        return state != State.OPEN;
+    }
+
+    /**
+     * Getter method to retrieve the host of the monitor.
+     * @return The host name.
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Thrown instead of making a request while the circuit of its host is open.
+     */
+    public static class CircuitOpenException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Constructor to create a CircuitOpenException for a host.
+         *
+         * @param host The unreachable host.
+         */
+        public CircuitOpenException(String host) {
+            super(host + " är inte nåbar just nu");
+        }
+    }
+}
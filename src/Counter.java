@@ -0,0 +1,37 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free event counter for the metrics registry.
+ */
+public class Counter implements CounterMBean {
+
+    private final LongAdder count;    // Number of events
+
+    /**
+     * Constructor to create a Counter at zero.
+     */
+    public Counter() {
+        count = new LongAdder();
+    }
+
+    /**
+     * Counts one event.
+     */
+    public void increment() {
+        count.increment();
+    }
+
+    /**
+     * Counts a number of events.
+     *
+     * @param events The number of events.
+     */
+    public void add(long events) {
+        count.add(events);
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+}
@@ -0,0 +1,11 @@
+/**
+ * Management interface of a Counter, shown in JConsole under radioplan:type=Counter.
+ */
+public interface CounterMBean {
+
+    /**
+     * Getter method to retrieve the number of counted events.
+     * @return The number of events.
+     */
+    long getCount();
+}
@@ -0,0 +1,288 @@
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Detects when the Event Dispatch Thread is blocked. An event queue is pushed that
+ * notes which event is being dispatched and since when, and a monitor thread checks it
+ * periodically. When one event has been dispatched for longer than the threshold, the
+ * stack of the EDT and a description of the event are captured as a stall. Time the EDT
+ * spends waiting for events inside a nested event loop, such as an open modal dialog,
+ * is not counted against the event that opened the loop. The total of that time is
+ * available from getNestedWaitNanos, so other measurements of the EDT can leave it out.
+ *
+ * The latest stalls are kept in a ring buffer that can be dumped through the
+ * radioplan:type=EdtWatchdog MBean, e.g. from JConsole. Stall durations are also
+ * recorded in the ui.edtStall latency histogram.
+ */
+public class EdtWatchdog implements EdtWatchdogMBean {
+
+    private static final long DEFAULT_THRESHOLD_MILLIS = 200;   // Dispatch time counted as a stall
+    private static final int CAPACITY = 32;                     // Stalls kept in the ring buffer
+    private static final int MAX_EVENT_LENGTH = 300;            // Longest event description kept
+
+    private static final LatencyHistogram STALL_LATENCY = Metrics.histogram("ui.edtStall");
+
+    private static volatile EdtWatchdog instance;
+
+    private final Stall[] stalls;       // Ring buffer of the latest stalls
+    private int next;                   // Index in stalls where the next stall is stored
+    private long stallCount;            // Number of stalls since start
+
+    private volatile long thresholdNanos;
+    private volatile Dispatch current;  // The event being dispatched, or null when the EDT is idle
+    private volatile long nestedWaitNanos;  // Time the EDT waited in nested event loops, written by the EDT only
+
+    /**
+     * Constructor to create an EdtWatchdog with the threshold given by the system property
+     * radioplan.edt.stall in milliseconds, or the default.
+     */
+    private EdtWatchdog() {
+        stalls = new Stall[CAPACITY];
+        thresholdNanos = Long.getLong("radioplan.edt.stall", DEFAULT_THRESHOLD_MILLIS) * 1_000_000;
+    }
+
+    /**
+     * Installs the watchdog on the system event queue and starts monitoring. Calling it
+     * again returns the installed watchdog.
+     *
+     * @return The watchdog.
+     */
+    public static synchronized EdtWatchdog install() {
+        if (instance == null) {
+            instance = new EdtWatchdog();
+            Toolkit.getDefaultToolkit().getSystemEventQueue().push(instance.new WatchedEventQueue());
+            Thread monitor = new Thread(instance::monitor, "edt-watchdog");
+            monitor.setDaemon(true);
+            monitor.start();
+            Metrics.register("EdtWatchdog", "edt", instance, EdtWatchdogMBean.class);
+        }
+        return instance;
+    }
+
+    /**
+     * Checks the event being dispatched a few times per threshold until the JVM exits.
+     */
+    private void monitor() {
+        while (true) {
+            try {
+                Thread.sleep(Math.max(1, thresholdNanos / 4_000_000));
+            } catch (InterruptedException e) {
+                return;
+            }
+            Dispatch dispatch = current;
+            if (dispatch != null && dispatch.stall == null
+                    && System.nanoTime() - dispatch.startNanos > thresholdNanos) {
+                dispatch.stall = new Stall(describe(dispatch.event), dispatch.thread.getStackTrace());
+                store(dispatch.stall);
+            }
+        }
+    }
+
+    /**
+     * Adds a stall to the ring buffer, replacing the oldest one when it is full.
+     *
+     * @param stall The stall.
+     */
+    private synchronized void store(Stall stall) {
+        stalls[next] = stall;
+        next = (next + 1) % CAPACITY;
+        stallCount++;
+    }
+
+    /**
+     * Describes an event for the stall record.
+     *
+     * @param event The event.
+     * @return The event as text, shortened to a readable length.
+     */
+    private static String describe(AWTEvent event) {
+        String text = event.getClass().getName() + ": " + event;
+        return text.length() > MAX_EVENT_LENGTH ? text.substring(0, MAX_EVENT_LENGTH) + "..." : text;
+    }
+
+    /**
+     * Retrieves the recorded stalls.
+     *
+     * @return The stalls in the ring buffer, oldest first.
+     */
+    public synchronized List<Stall> getStalls() {
+        List<Stall> result = new ArrayList<>(CAPACITY);
+        for (int i = 0; i < CAPACITY; i++) {
+            Stall stall = stalls[(next + i) % CAPACITY];
+            if (stall != null) {
+                result.add(stall);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Getter method to retrieve how long the EDT has waited for events inside nested event
+     * loops, such as open modal dialogs, since the watchdog was installed. The difference
+     * between two calls around an event handler is the time the handler spent waiting for
+     * the user rather than blocking the EDT.
+     * @return The total time in nanoseconds, 0 if no watchdog is installed.
+     */
+    public static long getNestedWaitNanos() {
+        EdtWatchdog watchdog = instance;
+        return watchdog != null ? watchdog.nestedWaitNanos : 0;
+    }
+
+    @Override
+    public synchronized long getStallCount() {
+        return stallCount;
+    }
+
+    @Override
+    public long getThresholdMillis() {
+        return thresholdNanos / 1_000_000;
+    }
+
+    @Override
+    public void setThresholdMillis(long thresholdMillis) {
+        thresholdNanos = Math.max(1, thresholdMillis) * 1_000_000;
+    }
+
+    @Override
+    public String dumpStalls() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        StringBuilder dump = new StringBuilder();
+        for (Stall stall : getStalls()) {
+            long duration = stall.getDurationMillis();
+            dump.append(format.format(new Date(stall.getTimeMillis())))
+                    .append(duration >= 0 ? " blocked " + duration + " ms" : " still blocked")
+                    .append('\n').append("  event: ").append(stall.getEvent()).append('\n');
+            for (StackTraceElement element : stall.getStackTrace()) {
+                dump.append("    at ").append(element).append('\n');
+            }
+        }
+        return dump.length() == 0 ? "Inga blockeringar registrerade" : dump.toString();
+    }
+
+    @Override
+    public synchronized void clearStalls() {
+        for (int i = 0; i < CAPACITY; i++) {
+            stalls[i] = null;
+        }
+    }
+
+    /**
+     * The event queue that tells the watchdog what is being dispatched.
+     */
+    private class WatchedEventQueue extends EventQueue {
+
+        @Override
+        public AWTEvent getNextEvent() throws InterruptedException {
+            if (!isDispatchThread()) {
+                return super.getNextEvent();
+            }
+            // Waiting for the next event, for example while a modal dialog is open inside the
+            // event that opened it, does not block the EDT, so the outer event is not watched
+            Dispatch waiting = current;
+            current = null;
+            long start = System.nanoTime();
+            try {
+                return super.getNextEvent();
+            } finally {
+                if (waiting != null) {
+                    long now = System.nanoTime();
+                    nestedWaitNanos += now - start;
+                    waiting.startNanos = now;
+                }
+                current = waiting;
+            }
+        }
+
+        @Override
+        protected void dispatchEvent(AWTEvent event) {
+            // A modal dialog dispatches events inside the event that opened it, so only the
+            // innermost event is watched and the outer one starts over when it resumes
+            Dispatch outer = current;
+            Dispatch dispatch = new Dispatch(event, Thread.currentThread());
+            current = dispatch;
+            try {
+                super.dispatchEvent(event);
+            } finally {
+                if (dispatch.stall != null) {
+                    long duration = System.nanoTime() - dispatch.startNanos;
+                    dispatch.stall.durationMillis = duration / 1_000_000;
+                    STALL_LATENCY.record(duration);
+                }
+                if (outer != null) {
+                    outer.startNanos = System.nanoTime();
+                }
+                current = outer;
+            }
+        }
+    }
+
+    /**
+     * An event being dispatched.
+     */
+    private static class Dispatch {
+        private final AWTEvent event;           // The event
+        private final Thread thread;            // The thread dispatching it
+        private volatile long startNanos;       // When the dispatch started or last resumed
+        private volatile Stall stall;           // The stall recorded for it, or null
+
+        private Dispatch(AWTEvent event, Thread thread) {
+            this.event = event;
+            this.thread = thread;
+            this.startNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * A recorded stall of the Event Dispatch Thread.
+     */
+    public static class Stall {
+        private final long timeMillis;                  // When the stall was detected
+        private final String event;                     // The event being dispatched
+        private final StackTraceElement[] stackTrace;   // The stack of the EDT when detected
+        private volatile long durationMillis;           // Total dispatch time, -1 while still blocked
+
+        private Stall(String event, StackTraceElement[] stackTrace) {
+            this.timeMillis = System.currentTimeMillis();
+            this.event = event;
+            this.stackTrace = stackTrace;
+            this.durationMillis = -1;
+        }
+
+        /**
+         * Getter method to retrieve when the stall was detected.
+         * @return The time in epoch milliseconds.
+         */
+        public long getTimeMillis() {
+            return timeMillis;
+        }
+
+        /**
+         * Getter method to retrieve the event that blocked the EDT.
+         * @return A description of the event.
+         */
+        public String getEvent() {
+            return event;
+        }
+
+        /**
+         * Getter method to retrieve the stack of the EDT when the stall was detected.
+         * @return The stack trace.
+         */
+        public StackTraceElement[] getStackTrace() {
+            return stackTrace.clone();
+        }
+
+        /**
+         * Getter method to retrieve how long the event blocked the EDT in total.
+         * @return The duration in milliseconds, or -1 while the event is still being dispatched.
+         */
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+    }
+}
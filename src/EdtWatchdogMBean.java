@@ -0,0 +1,34 @@
+/**
+ * Management interface of the EdtWatchdog, shown in JConsole under radioplan:type=EdtWatchdog.
+ */
+public interface EdtWatchdogMBean {
+
+    /**
+     * Getter method to retrieve the number of stalls detected since start.
+     * @return The number of stalls.
+     */
+    long getStallCount();
+
+    /**
+     * Getter method to retrieve how long an event may be dispatched before it counts as a stall.
+     * @return The threshold in milliseconds.
+     */
+    long getThresholdMillis();
+
+    /**
+     * Setter method to change how long an event may be dispatched before it counts as a stall.
+     * @param thresholdMillis The threshold in milliseconds.
+     */
+    void setThresholdMillis(long thresholdMillis);
+
+    /**
+     * Formats the recorded stalls with their events and EDT stack traces.
+     * @return The stalls, oldest first.
+     */
+    String dumpStalls();
+
+    /**
+     * Forgets the recorded stalls.
+     */
+    void clearStalls();
+}
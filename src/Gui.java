@@ -8,8 +8,6 @@ import java.awt.event.*;
 import java.awt.image.*;
 import java.io.*;
 import java.net.URL;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.List;
 
@@ -20,24 +18,30 @@ public class Gui extends JFrame {
 
     private JMenuBar menuBar;
     private JMenu menu;
-    private JMenu subMenuRiksKanal;
-    private JMenu subMenuLokalKanal;
-    private JMenu subMenuExtrakanaler;
-    private JMenu subMenuFlerkanaler;
-    private JMenu subMenuMinoritet;
 
     private JMenuItem update;
     private JMenuItem mode;
+    private JTextField searchField;
+    private JPopupMenu searchResults;     // Results of the latest search below the search field
     private JLabel imageLabel;
     private JPanel infoPanel;
     private JPanel schedulePanel;
 
     private JTable scheduleTable;
+    private ScheduleTableModel scheduleModel;
+    private JScrollPane scheduleScrollPane;
+    private boolean updatingSchedule;     // True while the schedule model is being changed
+
+    private static final LatencyHistogram TABLE_UPDATE_LATENCY = Metrics.histogram("ui.tableUpdate");
+    private static final String NO_CHANNEL_TEXT = "Välj en kanal för att visa information om den. "
+            + "Du kan sedan välja ett program för att visa information om det.";
 
     private JTextArea channelTextArea;
 
     private Map<Integer, Channel> channels;
 
+    private AsyncImageLoader imageLoader;
+
     /**
      * Constructor for creating a Gui object.
      *
@@ -48,6 +52,15 @@ public class Gui extends JFrame {
         setUpMenuBar();
     }
 
+    /**
+     * Sets the loader used to load channel images in the background.
+     *
+     * @param imageLoader The image loader.
+     */
+    public void setImageLoader(AsyncImageLoader imageLoader) {
+        this.imageLoader = imageLoader;
+    }
+
     /**
      * Locks the update menu item.
      */
@@ -111,8 +124,7 @@ public class Gui extends JFrame {
             channelTextArea.setBackground(new java.awt.Color(30, 30, 30));
             channelTextArea.setFont(new Font("SansSerif", Font.PLAIN, 18));
             channelTextArea.setForeground(new java.awt.Color(255, 255, 255));
-            channelTextArea.setText("Välj en kanal för att visa information om den. Du kan sedan välja " +
-                    "ett program för att visa information om det.");
+            channelTextArea.setText(NO_CHANNEL_TEXT);
             Border thickBorder = new LineBorder(Color.BLACK, 5);
             channelTextArea.setBorder(thickBorder);
             infoPanel.add(channelTextArea, BorderLayout.SOUTH);
@@ -127,17 +139,8 @@ public class Gui extends JFrame {
     private JPanel createSchedulePanel() {
         JPanel schedulePanel = new JPanel(new BorderLayout());
         schedulePanel.setBackground(new java.awt.Color(50, 50, 50));
-        Object[][] data = {};
-        String[] columnNames = new String[]{"Title", "Start Time", "End Time"};
-        this.scheduleTable = new JTable(new DefaultTableModel(
-                new Object[][]{},
-                new String[]{"Title", "Start Time", "End Time"}
-        ) {
-            @Override
-            public boolean isCellEditable(int row, int columns) {
-                return false;
-            }
-        });
+        this.scheduleModel = new ScheduleTableModel();
+        this.scheduleTable = new JTable(scheduleModel);
         scheduleTable.setDefaultRenderer(Object.class, new TableRender());
         scheduleTable.setFillsViewportHeight(true);
         scheduleTable.setBackground(new java.awt.Color(30, 30, 30));
@@ -145,8 +148,8 @@ public class Gui extends JFrame {
         TableColumnModel columnModel = scheduleTable.getColumnModel();
         columnModel.getColumn(1).setPreferredWidth(50);
         columnModel.getColumn(2).setPreferredWidth(50);
-        JScrollPane scrollPane = new JScrollPane(scheduleTable);
-        schedulePanel.add(scrollPane, BorderLayout.CENTER);
+        this.scheduleScrollPane = new JScrollPane(scheduleTable);
+        schedulePanel.add(scheduleScrollPane, BorderLayout.CENTER);
         return schedulePanel;
     }
 
@@ -195,125 +198,161 @@ public class Gui extends JFrame {
         update = new JMenuItem("Uppdatera");
         update.setActionCommand("update");
         update.addActionListener(actionListener);
+        JMenuItem now = new JMenuItem("Sänds nu");
+        now.setActionCommand("now");
+        now.addActionListener(actionListener);
         JMenuItem about = new JMenuItem("Om Programmet");
         about.setActionCommand("about");
         about.addActionListener(actionListener);
         mode = new JMenuItem("Byt läge");
         tools.add(update);
+        tools.add(now);
         tools.add(about);
         tools.add(mode);
         menuBar.add(tools);
     }
 
     /**
-     * Sets up the menu bar.
-     */
-    public void setUpMenuBar() {
-        menuBar = new JMenuBar();
-        menuBar.setBackground(new java.awt.Color(50, 50, 50));
-        menu = new JMenu("Kanaler");
-        subMenuRiksKanal = new JMenu("Rikskanaler");
-        subMenuLokalKanal = new JMenu("Lokala kanaler");
-        subMenuExtrakanaler = new JMenu("Extrakanaler");
-        subMenuFlerkanaler = new JMenu("Fler kanaler");
-        subMenuMinoritet = new JMenu("Minoritet och språk");
-        menu.add(subMenuRiksKanal);
-        menu.add(subMenuLokalKanal);
-        menu.add(subMenuExtrakanaler);
-        menu.add(subMenuFlerkanaler);
-        menu.add(subMenuMinoritet);
-        menuBar.add(menu);
-        setJMenuBar(menuBar);
-    }
-
-    /**
-     * Adds a channel to the "Rikskanaler" submenu.
+     * Sets up the search field at the right end of the menu bar. A search is requested
+     * with the action command "search" shortly after the user stops typing and when Enter
+     * is pressed.
      *
-     * @param name           The name of the channel.
-     * @param actionListener The action listener for the channel.
+     * @param actionListener The action listener for searches.
      */
-    public void addChannelRiksKanaler(String name, ActionHandler actionListener) {
-        JMenuItem menuItem = new JMenuItem(name);
-        menuItem.setActionCommand(name);
-        menuItem.addActionListener(actionListener);
-        subMenuRiksKanal.add(menuItem);
+    public void setUpSearchField(ActionListener actionListener) {
+        searchField = new JTextField(18);
+        searchField.setMaximumSize(searchField.getPreferredSize());
+        searchField.setToolTipText("Sök bland programmen i alla kanaler");
+        searchField.setActionCommand("search");
+        searchField.addActionListener(actionListener);
+        searchResults = new JPopupMenu();
+        // Keep the focus in the field so the user can go on typing while results are shown
+        searchResults.setFocusable(false);
+
+        javax.swing.Timer delay = new javax.swing.Timer(150,
+                e -> actionListener.actionPerformed(new ActionEvent(searchField, ActionEvent.ACTION_PERFORMED, "search")));
+        delay.setRepeats(false);
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                delay.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                delay.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                delay.restart();
+            }
+        });
+
+        menuBar.add(Box.createHorizontalGlue());
+        menuBar.add(new JLabel("Sök: "));
+        menuBar.add(searchField);
     }
 
     /**
-     * Adds a channel to the "Lokala kanaler" submenu.
-     *
-     * @param name           The name of the channel.
-     * @param actionListener The action listener for the channel.
+     * Getter method to retrieve the text of the search field.
+     * @return The query.
      */
-    public void addChannelLokalKanaler(String name, ActionHandler actionListener) {
-        JMenuItem menuItem = new JMenuItem(name);
-        menuItem.setActionCommand(name);
-        menuItem.addActionListener(actionListener);
-        subMenuLokalKanal.add(menuItem);
+    public String getSearchText() {
+        return searchField.getText();
     }
 
     /**
-     * Adds a channel to the "Extrakanaler" submenu.
+     * Shows search results in a popup below the search field, or hides the popup when
+     * the query is empty.
      *
-     * @param name           The name of the channel.
-     * @param actionListener The action listener for the channel.
+     * @param query    The query the results are for.
+     * @param results  The results, best first.
+     * @param onSelect Called with the result the user selects.
      */
-    public void addChannelExtrakanaler(String name, ActionHandler actionListener) {
-        JMenuItem menuItem = new JMenuItem(name);
-        menuItem.setActionCommand(name);
-        menuItem.addActionListener(actionListener);
-        subMenuExtrakanaler.add(menuItem);
+    public void showSearchResults(String query, List<SearchIndex.Result> results,
+                                  java.util.function.Consumer<SearchIndex.Result> onSelect) {
+        searchResults.setVisible(false);
+        searchResults.removeAll();
+        if (query.isBlank()) {
+            return;
+        }
+        if (results.isEmpty()) {
+            JMenuItem none = new JMenuItem("Inga träffar");
+            none.setEnabled(false);
+            searchResults.add(none);
+        }
+        for (SearchIndex.Result result : results) {
+            Program program = result.getProgram();
+            JMenuItem item = new JMenuItem(program.getTitle() + " – " + result.getChannel().getName() + ", "
+                    + TimeFormat.formatDisplay(program.getStartTime()));
+            item.addActionListener(e -> onSelect.accept(result));
+            searchResults.add(item);
+        }
+        searchResults.show(searchField, 0, searchField.getHeight());
     }
 
     /**
-     * Adds a channel to the "Fler kanaler" submenu.
-     *
-     * @param name           The name of the channel.
-     * @param actionListener The action listener for the channel.
+     * Sets up the menu bar.
      */
-    public void addChannelFlerkanaler(String name, ActionHandler actionListener) {
-        JMenuItem menuItem = new JMenuItem(name);
-        menuItem.setActionCommand(name);
-        menuItem.addActionListener(actionListener);
-        subMenuFlerkanaler.add(menuItem);
+    public void setUpMenuBar() {
+        menuBar = new JMenuBar();
+        menuBar.setBackground(new java.awt.Color(50, 50, 50));
+        menu = new JMenu("Kanaler");
+        setChannels(new EnumMap<>(ChannelType.class), null);
+        menuBar.add(menu);
+        setJMenuBar(menuBar);
     }
 
     /**
-     * Adds a channel to the "Minoritet och språk" submenu.
+     * Replaces the channel submenus with new ones listing the given channel names.
+     * The submenus are built completely before they are swapped in, so the menu is
+     * only changed once however many channels there are.
      *
-     * @param name           The name of the channel.
-     * @param actionListener The action listener for the channel.
+     * @param names          The sorted channel names per channel type.
+     * @param actionListener The action listener for the channels.
      */
-    public void addChannelMinoritet(String name, ActionHandler actionListener) {
-        JMenuItem menuItem = new JMenuItem(name);
-        menuItem.setActionCommand(name);
-        menuItem.addActionListener(actionListener);
-        subMenuMinoritet.add(menuItem);
+    public void setChannels(Map<ChannelType, List<String>> names, ActionListener actionListener) {
+        List<JMenu> subMenus = new ArrayList<>(ChannelType.values().length);
+        for (ChannelType type : ChannelType.values()) {
+            JMenu subMenu = new JMenu(type.getMenuTitle());
+            for (String name : names.getOrDefault(type, List.of())) {
+                JMenuItem menuItem = new JMenuItem(name);
+                menuItem.setActionCommand(name);
+                menuItem.addActionListener(actionListener);
+                subMenu.add(menuItem);
+            }
+            subMenus.add(subMenu);
+        }
+        menu.removeAll();
+        for (JMenu subMenu : subMenus) {
+            menu.add(subMenu);
+        }
     }
 
     /**
      * Updates the information panel with the provided image URL and description.
+     * The description is shown at once and the image is loaded in the background.
      *
      * @param imageUrl The URL of the image.
      * @param about    The description of the channel.
      */
     public void updateInfoPanel(String imageUrl, String about) {
-        try {
-            if (imageUrl != null) {
-                BufferedImage image = ImageIO.read(new URL(imageUrl));
-                Image resizedImage = image.getScaledInstance(300, 300, Image.SCALE_SMOOTH);
-                imageLabel.setIcon(new ImageIcon(resizedImage));
-            } else {
-                BufferedImage image = ImageIO.read(new URL("https://people.cs.umu.se/c22hsh/imagenotfound.png"));
-                Image resizedImage = image.getScaledInstance(300, 300, Image.SCALE_SMOOTH);
-                imageLabel.setIcon(new ImageIcon(resizedImage));
-            }
-            channelTextArea.setText(about);
-        } catch (IOException e) {
+        channelTextArea.setText(about);
+        String url = imageUrl != null ? imageUrl : "https://people.cs.umu.se/c22hsh/imagenotfound.png";
+        imageLoader.load(imageLabel, url, 300, 300, () -> {
             displayPopupMessage("ERROR: Kan inte hämta kanal icon pga ingen internet");
             imageLabel.setIcon(null);
-            channelTextArea.setText(about);
-        }
+        });
+    }
+
+    /**
+     * Clears the information panel when no channel is selected, showing the same text as
+     * at startup.
+     */
+    public void clearInfoPanel() {
+        channelTextArea.setText(NO_CHANNEL_TEXT);
+        imageLabel.setIcon(null);
     }
 
     /**
@@ -327,24 +366,51 @@ public class Gui extends JFrame {
 
     /**
      * Updates the schedule panel with the provided list of programs.
+     * Only changed rows are updated, and the selection and the program at the top
+     * of the visible area are kept when they are still in the schedule.
      *
      * @param programs The list of programs to be displayed.
      */
     public void updateSchedulePanel(List<Program> programs) {
-        DefaultTableModel model = (DefaultTableModel) scheduleTable.getModel();
-        model.setRowCount(0);
-        for (Program program : programs) {
-            LocalDateTime startTime = LocalDateTime.parse(program.getStartTime(), DateTimeFormatter.ISO_DATE_TIME);
-            LocalDateTime endTime = LocalDateTime.parse(program.getEndTime(), DateTimeFormatter.ISO_DATE_TIME);
-            String startt = startTime.format(DateTimeFormatter.ofPattern("MMM dd, HH:mm"));
-            String endtt = endTime.format(DateTimeFormatter.ofPattern("MMM dd, HH:mm"));
-            Object[] rowData = {
-                    program.getTitle(),
-                    startt,
-                    endtt
-            };
-            model.addRow(rowData);
+        long start = System.nanoTime();
+        JViewport viewport = scheduleScrollPane.getViewport();
+        Point position = viewport.getViewPosition();
+        int topRow = scheduleTable.rowAtPoint(position);
+        Program anchor = topRow >= 0 ? scheduleModel.getProgramAt(topRow) : null;
+        int offset = topRow >= 0 ? position.y - scheduleTable.getCellRect(topRow, 0, true).y : 0;
+
+        updatingSchedule = true;
+        try {
+            scheduleModel.setPrograms(programs);
+        } finally {
+            updatingSchedule = false;
         }
+
+        int anchorRow = anchor != null ? scheduleModel.indexOf(anchor) : -1;
+        if (anchorRow >= 0 && anchorRow != topRow) {
+            scheduleScrollPane.validate();
+            viewport.setViewPosition(new Point(position.x, scheduleTable.getCellRect(anchorRow, 0, true).y + offset));
+        }
+        TABLE_UPDATE_LATENCY.recordSince(start);
+    }
+
+    /**
+     * Checks whether the schedule table is being updated, during which selection
+     * changes come from the update and not from the user.
+     *
+     * @return True while the schedule is being updated.
+     */
+    public boolean isUpdatingSchedule() {
+        return updatingSchedule;
+    }
+
+    /**
+     * Gets the model of the schedule table.
+     *
+     * @return The schedule table model.
+     */
+    public ScheduleTableModel getScheduleModel() {
+        return scheduleModel;
     }
 
     /**
@@ -0,0 +1,434 @@
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Runs RadioPlan without a GUI and serves the cached channels and schedules as JSON
+ * over HTTP, so that many displays can share one process talking to api.sr.se.
+ *
+ * The channel list and the schedules of all channels are refreshed every hour. After
+ * each refresh every response is rendered once, with its ETag and a gzipped copy, and
+ * requests are answered from these precomputed bytes. The endpoints are:
+ * <ul>
+ *     <li>GET /channels - all channels</li>
+ *     <li>GET /channels/{id}/schedule - the schedule of one channel</li>
+ *     <li>GET /now - the program on air on every channel, rendered every 30 seconds</li>
+ *     <li>GET /metrics - the counters and latencies of the Metrics registry, rendered per request</li>
+ * </ul>
+ */
+public class HeadlessServer {
+
+    public static final int DEFAULT_PORT = 8080;                           // Port unless -Dradioplan.server.port is set
+    private static final long REFRESH_INTERVAL_MILLIS = 60 * 60 * 1000;   // How often the API is asked for changes
+    private static final long NOW_INTERVAL_MILLIS = 30_000;               // How often /now is rendered
+    private static final String CACHE_CONTROL = "public, max-age=30";
+
+    private static final Counter REQUESTS = Metrics.counter("server.requests");
+    private static final Counter NOT_MODIFIED = Metrics.counter("server.notModified");
+
+    private final ApiParser api;
+    private final HttpFetcher fetcher;
+    private final ScheduleSource source;
+    private final RefreshEngine refreshEngine;
+    private final File snapshotFile;
+    private final int port;
+    private final ScheduledExecutorService scheduler;   // Runs ingestion and rendering, one task at a time
+
+    private HttpServer server;
+    private ExecutorService requestExecutor;
+    private boolean channelsDownloaded;             // Whether the channel list was parsed from the API
+
+    private volatile Map<String, JsonResponse> responses;   // Precomputed responses per path
+
+    /**
+     * Constructor to create a HeadlessServer.
+     *
+     * @param api  ApiParser holding the channels served.
+     * @param port The port to listen on, 0 for any free port.
+     */
+    public HeadlessServer(ApiParser api, int port) {
+        this.api = api;
+        this.fetcher = new HttpFetcher();
+        this.source = ScheduleSource.fromProperties(api, fetcher);
+        api.setClock(source.getClock());
+        this.refreshEngine = new RefreshEngine(api, source, fetcher.getScheduler());
+        this.snapshotFile = AppDirectory.getFile("schedule.bin");
+        this.port = port;
+        this.responses = new HashMap<>();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "headless-ingest");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Serves the schedules saved by the previous run right away, then starts listening
+     * and refreshing from the API in the background.
+     *
+     * @throws IOException If the server cannot listen on the port.
+     */
+    public void start() throws IOException {
+        for (Channel channel : ScheduleSnapshot.load(snapshotFile)) {
+            api.getChannelsMap().put(channel.getId(), channel);
+        }
+        render();
+
+        // Headers and body are written separately, which Nagle's algorithm would delay by one ACK round trip
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/", this::handle);
+        requestExecutor = Executors.newFixedThreadPool(
+                Integer.getInteger("radioplan.server.threads", Runtime.getRuntime().availableProcessors() * 2));
+        server.setExecutor(requestExecutor);
+        server.start();
+
+        scheduler.scheduleWithFixedDelay(this::ingest, 0, REFRESH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        scheduler.scheduleAtFixedRate(this::renderNow, NOW_INTERVAL_MILLIS, NOW_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops serving and refreshing.
+     */
+    public void stop() {
+        scheduler.shutdownNow();
+        fetcher.shutdown();
+        if (server != null) {
+            server.stop(0);
+            requestExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Getter method to retrieve the port the server listens on.
+     * @return The port.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Refreshes the channel list and all schedules from the API and renders the responses.
+     * Failures keep the data already served.
+     */
+    private void ingest() {
+        try {
+            HttpFetcher.Response response = source.fetchChannels(channelsDownloaded, RequestScheduler.Priority.REFRESH);
+            if (response.isModified()) {
+                api.parseChannels(response.openBody());
+            }
+            channelsDownloaded = true;
+        } catch (Exception e) {
+            channelsDownloaded = false;
+            System.err.println("Gick inte att hämta kanaler: " + e.getMessage());
+        }
+
+        try {
+            List<Channel> channels = new ArrayList<>(api.getChannelsMap().values());
+            // The first refresh fetches every day, later ones only the day entering the range
+            int refreshed = refreshEngine.advance(channels);
+            if (refreshed < channels.size()) {
+                System.err.println("Kunde inte uppdatera tablån för " + (channels.size() - refreshed) + " kanaler");
+            }
+            render();
+            ScheduleSnapshot.save(api.getChannelsMap().values(), snapshotFile);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException e) {
+            // A failed task would cancel the schedule, so the next refresh simply tries again
+            System.err.println("Kunde inte uppdatera tablån: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Renders every response from the current channels and schedules.
+     */
+    private void render() {
+        Map<String, JsonResponse> previous = responses;
+        Map<String, JsonResponse> next = new HashMap<>();
+        List<Channel> channels = new ArrayList<>(api.getChannelsMap().values());
+        channels.sort(Comparator.comparingInt(Channel::getId));
+
+        JsonWriter json = new JsonWriter().beginArray();
+        for (Channel channel : channels) {
+            json.beginObject()
+                    .name("id").value(channel.getId())
+                    .name("name").value(channel.getName())
+                    .name("type").value(channel.getChannelType())
+                    .name("image").value(channel.getImageUrl())
+                    .name("tagline").value(channel.getAbout())
+                    .name("schedule").value("/channels/" + channel.getId() + "/schedule")
+                    .endObject();
+        }
+        put(next, previous, "/channels", json.endArray().toString());
+
+        for (Channel channel : channels) {
+            json = new JsonWriter().beginObject();
+            json.name("channel");
+            writeChannel(json, channel);
+            json.name("programs").beginArray();
+            for (Program program : channel.getProgrammes()) {
+                writeProgram(json, program);
+            }
+            json.endArray().endObject();
+            put(next, previous, "/channels/" + channel.getId() + "/schedule", json.toString());
+        }
+
+        put(next, previous, "/now", renderNow(api.getChannelsMap(), api.getClock().millis()));
+        responses = next;
+    }
+
+    /**
+     * Renders /now again, since the programs on air change without a refresh.
+     */
+    private void renderNow() {
+        try {
+            Map<String, JsonResponse> next = new HashMap<>(responses);
+            put(next, responses, "/now", renderNow(api.getChannelsMap(), api.getClock().millis()));
+            responses = next;
+        } catch (RuntimeException e) {
+            System.err.println("Kunde inte visa vad som sänds nu: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Renders the programs on air right now.
+     *
+     * @param channels The channels by id.
+     * @param now      The current time in epoch milliseconds.
+     * @return The JSON of /now.
+     */
+    private static String renderNow(Map<Integer, Channel> channels, long now) {
+        JsonWriter json = new JsonWriter().beginArray();
+        for (ScheduleStore.Entry entry : ScheduleStore.build(channels).onAirAt(now)) {
+            json.beginObject().name("channel");
+            writeChannel(json, entry.getChannel());
+            json.name("program");
+            writeProgram(json, entry.getProgram());
+            json.endObject();
+        }
+        return json.endArray().toString();
+    }
+
+    /**
+     * Writes the reference to a channel used inside other responses.
+     *
+     * @param json    The writer.
+     * @param channel The channel.
+     */
+    private static void writeChannel(JsonWriter json, Channel channel) {
+        json.beginObject()
+                .name("id").value(channel.getId())
+                .name("name").value(channel.getName())
+                .endObject();
+    }
+
+    /**
+     * Writes a program.
+     *
+     * @param json    The writer.
+     * @param program The program.
+     */
+    private static void writeProgram(JsonWriter json, Program program) {
+        json.beginObject()
+                .name("id").value(program.getId())
+                .name("title").value(program.getTitle())
+                .name("description").value(program.getDescription())
+                .name("start").value(TimeFormat.formatUtc(program.getStartTime()))
+                .name("end").value(TimeFormat.formatUtc(program.getEndTime()))
+                .name("image").value(program.getImageUrl())
+                .name("programId").value(program.getProgramId())
+                .name("programName").value(program.getProgramName())
+                .endObject();
+    }
+
+    /**
+     * Adds a rendered response, reusing the previous one for the path if the body is unchanged.
+     *
+     * @param next     The responses being built.
+     * @param previous The responses served so far.
+     * @param path     The request path.
+     * @param body     The JSON body.
+     */
+    private static void put(Map<String, JsonResponse> next, Map<String, JsonResponse> previous, String path,
+                            String body) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        String etag = etag(bytes);
+        JsonResponse old = previous.get(path);
+        next.put(path, old != null && old.etag.equals(etag) ? old : new JsonResponse(bytes, etag));
+    }
+
+    /**
+     * Answers a request from the precomputed responses.
+     *
+     * @param exchange The request.
+     * @throws IOException If the response cannot be sent.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            boolean head = "HEAD".equals(method);
+            if (!head && !"GET".equals(method)) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            if (path.length() > 1 && path.endsWith("/")) {
+                path = path.substring(0, path.length() - 1);
+            }
+            REQUESTS.increment();
+            if ("/metrics".equals(path)) {
+                JsonWriter json = new JsonWriter();
+                Metrics.writeJson(json);
+                byte[] body = json.toString().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+                exchange.getResponseHeaders().set("Cache-Control", "no-store");
+                exchange.sendResponseHeaders(200, head ? -1 : body.length);
+                if (!head) {
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                }
+                return;
+            }
+            JsonResponse response = responses.get(path);
+            if (response == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            // The gzip and identity representations differ in bytes, so each has its own strong ETag
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            boolean gzip = response.gzipped != null && acceptEncoding != null && acceptEncoding.contains("gzip");
+            String etag = gzip ? response.gzipEtag : response.etag;
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("ETag", etag);
+            headers.set("Cache-Control", CACHE_CONTROL);
+            headers.set("Vary", "Accept-Encoding");
+            if (matches(exchange.getRequestHeaders().getFirst("If-None-Match"), etag)) {
+                NOT_MODIFIED.increment();
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+
+            headers.set("Content-Type", "application/json; charset=utf-8");
+            byte[] body = response.body;
+            if (gzip) {
+                headers.set("Content-Encoding", "gzip");
+                body = response.gzipped;
+            }
+            if (head) {
+                headers.set("Content-Length", String.valueOf(body.length));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Checks an If-None-Match header against the ETag of the selected representation,
+     * with the weak comparison RFC 9110 prescribes for If-None-Match.
+     *
+     * @param ifNoneMatch The header, or null.
+     * @param etag        The quoted ETag.
+     * @return True if the header is * or lists the ETag.
+     */
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        if (ifNoneMatch.trim().equals("*")) {
+            return true;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes a strong ETag for a body.
+     *
+     * @param body The body.
+     * @return The quoted ETag.
+     */
+    private static String etag(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            StringBuilder etag = new StringBuilder("\"");
+            for (int i = 0; i < 12; i++) {
+                etag.append(String.format("%02x", digest[i]));
+            }
+            return etag.append('"').toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A rendered response.
+     */
+    private static class JsonResponse {
+        private final byte[] body;        // The JSON in UTF-8
+        private final byte[] gzipped;     // The body gzipped, or null if that does not make it smaller
+        private final String etag;        // Quoted ETag of the body
+        private final String gzipEtag;    // Quoted ETag of the gzipped body
+
+        private JsonResponse(byte[] body, String etag) {
+            this.body = body;
+            this.etag = etag;
+            this.gzipEtag = etag.substring(0, etag.length() - 1) + "-gz\"";
+            this.gzipped = gzip(body);
+        }
+
+        /**
+         * Compresses a body.
+         *
+         * @param body The body.
+         * @return The gzipped body, or null if it is not smaller.
+         */
+        private static byte[] gzip(byte[] body) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length / 4 + 64);
+            try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+                out.write(body);
+            } catch (IOException e) {
+                return null;
+            }
+            return bytes.size() < body.length ? bytes.toByteArray() : null;
+        }
+    }
+}
@@ -0,0 +1,625 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Fetches API responses over HTTP with conditional requests and compression.
+ * The ETag and Last-Modified validators of every URL are remembered and sent back
+ * as If-None-Match and If-Modified-Since. When the server does not support validators,
+ * a hash of the body tells whether the payload changed since the previous fetch.
+ * Schedule URLs include the day, so the validators of the least recently used URLs are
+ * forgotten beyond a limit set by radioplan.fetch.validators, by default 4096 URLs.
+ *
+ * A body can be handed to a BodyReader, such as a parser, while it is being received.
+ * It is decompressed, counted and hashed on the way, so it is never held in memory as a
+ * whole. A 304 response is not read at all. Whether a full body was unchanged is only
+ * known once it has been read, so its reader has run by then and the caller discards
+ * the result.
+ *
+ * Every request reports its outcome to the ConnectivityMonitor of its host, and
+ * requests to a host whose circuit is open fail fast without touching the network.
+ *
+ * Requests are made on the workers of a RequestScheduler, which limits their rate and
+ * concurrency and serves them by priority.
+ */
+public class HttpFetcher {
+
+    private static final int TIMEOUT_MILLIS = 10_000;   // Connect and read timeout per request
+    private static final int DEFAULT_MAX_VALIDATORS = 4096;   // URLs whose validators are remembered
+
+    private static final Counter ERRORS = Metrics.counter("fetch.errors");
+    private static final Counter BYTES_RECEIVED = Metrics.counter("fetch.bytesReceived");
+    private static final Counter BYTES_SAVED = Metrics.counter("fetch.bytesSaved");
+    private static final Counter NOT_MODIFIED = Metrics.counter("fetch.notModified");
+    private static final Counter UNCHANGED = Metrics.counter("fetch.unchanged");
+
+    private final Map<String, Validators> validators;   // Validators of the last response per URL
+    private final RequestScheduler scheduler;           // Runs the requests by priority
+
+    private final AtomicLong requests;        // Requests sent
+    private final AtomicLong bytesReceived;   // Body bytes received on the wire
+    private final AtomicLong bytesSaved;      // Body bytes not downloaded thanks to 304 responses
+    private final AtomicLong notModified;     // Responses answered with 304
+    private final AtomicLong unchanged;       // 200 responses whose body had not changed
+
+    /**
+     * Constructor to create a HttpFetcher with no remembered validators and a
+     * RequestScheduler configured by system properties.
+     */
+    public HttpFetcher() {
+        this(new RequestScheduler());
+    }
+
+    /**
+     * Constructor to create a HttpFetcher with no remembered validators.
+     *
+     * @param scheduler The scheduler the requests are run on.
+     */
+    public HttpFetcher(RequestScheduler scheduler) {
+        this.scheduler = scheduler;
+        validators = Collections.synchronizedMap(
+                new ValidatorCache(Integer.getInteger("radioplan.fetch.validators", DEFAULT_MAX_VALIDATORS)));
+        requests = new AtomicLong();
+        bytesReceived = new AtomicLong();
+        bytesSaved = new AtomicLong();
+        notModified = new AtomicLong();
+        unchanged = new AtomicLong();
+    }
+
+    /**
+     * Fetches the given URL conditionally.
+     *
+     * @param url The URL to fetch.
+     * @return The response, which is not modified if the payload is the same as last time.
+     * @throws IOException If the request fails.
+     */
+    public Response fetch(URL url) throws IOException {
+        return fetch(url, true);
+    }
+
+    /**
+     * Fetches the given URL as an interactive request.
+     *
+     * @param url         The URL to fetch.
+     * @param conditional False to always download and report the body as modified,
+     *                    for callers that lost the result of the previous fetch.
+     * @return The response.
+     * @throws IOException If the request fails.
+     */
+    public Response fetch(URL url, boolean conditional) throws IOException {
+        return fetch(url, conditional, RequestScheduler.Priority.INTERACTIVE);
+    }
+
+    /**
+     * Fetches the given URL, waiting for the scheduler to let the request start.
+     *
+     * @param url         The URL to fetch.
+     * @param conditional False to always download and report the body as modified,
+     *                    for callers that lost the result of the previous fetch.
+     * @param priority    The priority of the request.
+     * @return The response.
+     * @throws IOException If the request fails.
+     */
+    public Response fetch(URL url, boolean conditional, RequestScheduler.Priority priority) throws IOException {
+        Result<byte[]> result = fetch(url, conditional, priority, HttpFetcher::readAll);
+        return new Response(result.getValue(), result.isModified());
+    }
+
+    /**
+     * Fetches the given URL and reads the body with a BodyReader while it is received,
+     * waiting for the scheduler to let the request start.
+     *
+     * @param url         The URL to fetch.
+     * @param conditional False to always download and report the body as modified,
+     *                    for callers that lost the result of the previous fetch.
+     * @param priority    The priority of the request.
+     * @param reader      Reads the decoded body, not called for a 304 response.
+     * @param <T>         The type of what the reader returns.
+     * @return The result, with no value for a 304 response.
+     * @throws IOException If the request fails, or a BodyException if the reader fails.
+     */
+    public <T> Result<T> fetch(URL url, boolean conditional, RequestScheduler.Priority priority,
+                               BodyReader<T> reader) throws IOException {
+        ConnectivityMonitor monitor = ConnectivityMonitor.forHost(url.getHost());
+        if (!monitor.allowRequest()) {
+            throw new ConnectivityMonitor.CircuitOpenException(url.getHost());
+        }
+        return scheduler.call(priority, () -> fetchNow(url, conditional, true, monitor, reader));
+    }
+
+    /**
+     * Downloads the given URL as an interactive request without validators, for
+     * resources the caller stores itself and never revalidates, such as images. Nothing
+     * is remembered about the URL.
+     *
+     * @param url The URL to download.
+     * @return The body.
+     * @throws IOException If the request fails.
+     */
+    public byte[] download(URL url) throws IOException {
+        ConnectivityMonitor monitor = ConnectivityMonitor.forHost(url.getHost());
+        if (!monitor.allowRequest()) {
+            throw new ConnectivityMonitor.CircuitOpenException(url.getHost());
+        }
+        return scheduler.call(RequestScheduler.Priority.INTERACTIVE,
+                () -> fetchNow(url, false, false, monitor, HttpFetcher::readAll)).getValue();
+    }
+
+    /**
+     * Fetches the given URL on the calling thread and reports the outcome to the monitor.
+     *
+     * @param url         The URL to fetch.
+     * @param conditional Whether the remembered validators are sent.
+     * @param remember    Whether the validators of the response are remembered.
+     * @param monitor     The ConnectivityMonitor of the host.
+     * @param reader      Reads the body.
+     * @param <T>         The type of what the reader returns.
+     * @return The result.
+     * @throws IOException If the request fails.
+     */
+    private <T> Result<T> fetchNow(URL url, boolean conditional, boolean remember, ConnectivityMonitor monitor,
+                                   BodyReader<T> reader) throws IOException {
+        LatencyHistogram latency = Metrics.histogram("fetch." + endpoint(url));
+        long start = System.nanoTime();
+        boolean reached = false;
+        try {
+            Result<T> result = request(url, conditional, remember, reader);
+            reached = true;
+            return result;
+        } catch (FileNotFoundException | BodyException e) {
+            reached = true;     // The host answered, the resource is just missing or unreadable
+            throw e;
+        } finally {
+            latency.recordSince(start);
+            if (reached) {
+                monitor.recordSuccess();
+            } else {
+                ERRORS.increment();
+                monitor.recordFailure();
+            }
+        }
+    }
+
+    /**
+     * Names the endpoint of a URL for the fetch latency metrics.
+     *
+     * @param url The URL.
+     * @return The last path segment for API URLs, e.g. scheduledepisodes, otherwise images.
+     */
+    private static String endpoint(URL url) {
+        if (!ApiParser.API_HOST.equalsIgnoreCase(url.getHost())) {
+            return "images";
+        }
+        String path = url.getPath();
+        int end = path.endsWith("/") ? path.length() - 1 : path.length();
+        return path.substring(path.lastIndexOf('/', end - 1) + 1, end);
+    }
+
+    /**
+     * Makes the request for fetch.
+     *
+     * @param url         The URL to fetch.
+     * @param conditional Whether the remembered validators are sent.
+     * @param remember    Whether the validators of the response are remembered.
+     * @param reader      Reads the body.
+     * @param <T>         The type of what the reader returns.
+     * @return The result.
+     * @throws IOException If the request fails.
+     */
+    private <T> Result<T> request(URL url, boolean conditional, boolean remember, BodyReader<T> reader)
+            throws IOException {
+        String key = url.toString();
+        Validators previous = conditional ? validators.get(key) : null;
+
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        if (previous != null) {
+            if (previous.etag != null) {
+                connection.setRequestProperty("If-None-Match", previous.etag);
+            }
+            if (previous.lastModified != null) {
+                connection.setRequestProperty("If-Modified-Since", previous.lastModified);
+            }
+        }
+        requests.incrementAndGet();
+
+        if (previous != null && connection instanceof HttpURLConnection
+                && ((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            notModified.incrementAndGet();
+            bytesSaved.addAndGet(previous.length);
+            NOT_MODIFIED.increment();
+            BYTES_SAVED.add(previous.length);
+            return new Result<>(null, false);
+        }
+
+        MessageDigest digest = newDigest();
+        T value;
+        long received;
+        try (CountingInputStream wire = new CountingInputStream(connection.getInputStream())) {
+            InputStream decoded = "gzip".equalsIgnoreCase(connection.getContentEncoding())
+                    ? new GZIPInputStream(wire) : wire;
+            value = read(reader, new DigestInputStream(decoded, digest), wire);
+            received = wire.count;
+        }
+        bytesReceived.addAndGet(received);
+        BYTES_RECEIVED.add(received);
+
+        if (!remember) {
+            return new Result<>(value, true);
+        }
+        byte[] hash = digest.digest();
+        validators.put(key, new Validators(connection.getHeaderField("ETag"),
+                connection.getHeaderField("Last-Modified"), hash, received));
+        if (previous != null && Arrays.equals(previous.hash, hash)) {
+            unchanged.incrementAndGet();
+            UNCHANGED.increment();
+            return new Result<>(value, false);
+        }
+        return new Result<>(value, true);
+    }
+
+    /**
+     * Lets a reader read a body being received, then reads what it left so the whole
+     * body is hashed and counted.
+     *
+     * @param reader The reader.
+     * @param body   The decoded body.
+     * @param wire   The body as received, which notes whether the connection failed.
+     * @param <T>    The type of what the reader returns.
+     * @return What the reader returned.
+     * @throws IOException If the connection fails, or a BodyException if the reader fails.
+     */
+    private static <T> T read(BodyReader<T> reader, InputStream body, CountingInputStream wire) throws IOException {
+        T value;
+        try {
+            // Parsers close their input, but the body is still read to its end below
+            value = reader.read(new FilterInputStream(body) {
+                @Override
+                public void close() {
+                }
+            });
+        } catch (Exception e) {
+            if (wire.failure != null) {
+                throw wire.failure;
+            }
+            throw bodyException(e);
+        }
+        byte[] buffer = new byte[8192];
+        while (body.read(buffer) != -1) {
+            // Only hashed and counted
+        }
+        return value;
+    }
+
+    /**
+     * Reads the body of a response received as a whole, for sources that do not fetch over
+     * HTTP, such as a replay.
+     *
+     * @param response The response.
+     * @param reader   Reads the body, not called if the response has none.
+     * @param <T>      The type of what the reader returns.
+     * @return The result, with no value if the response has no body.
+     * @throws BodyException If the reader fails.
+     */
+    static <T> Result<T> read(Response response, BodyReader<T> reader) throws BodyException {
+        if (response.getBody() == null) {
+            return new Result<>(null, response.isModified());
+        }
+        try {
+            return new Result<>(reader.read(response.openBody()), response.isModified());
+        } catch (Exception e) {
+            throw bodyException(e);
+        }
+    }
+
+    /**
+     * Wraps the failure of a BodyReader.
+     *
+     * @param e The failure.
+     * @return The exception to throw.
+     */
+    private static BodyException bodyException(Exception e) {
+        if (e instanceof InterruptedException) {
+            Thread.currentThread().interrupt();
+        }
+        return e instanceof BodyException ? (BodyException) e : new BodyException(e);
+    }
+
+    /**
+     * Reads a stream to its end.
+     *
+     * @param in The stream to read.
+     * @return All bytes of the stream.
+     * @throws IOException If reading fails.
+     */
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 * 1024);
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Creates the digest response bodies are hashed with.
+     *
+     * @return A SHA-256 digest.
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Getter method to retrieve the scheduler the requests are run on.
+     * @return The scheduler.
+     */
+    public RequestScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Stops the workers of the scheduler.
+     */
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+    /**
+     * Getter method to retrieve the number of requests sent.
+     * @return The number of requests.
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * Getter method to retrieve the number of body bytes received on the wire.
+     * @return The number of bytes received.
+     */
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /**
+     * Getter method to retrieve the number of body bytes that 304 responses saved.
+     * @return The number of bytes saved.
+     */
+    public long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
+    /**
+     * Getter method to retrieve the number of responses answered with 304 Not Modified.
+     * @return The number of 304 responses.
+     */
+    public long getNotModifiedCount() {
+        return notModified.get();
+    }
+
+    /**
+     * Getter method to retrieve the number of full responses whose body had not changed.
+     * @return The number of unchanged responses.
+     */
+    public long getUnchangedCount() {
+        return unchanged.get();
+    }
+
+    /**
+     * Getter method to retrieve the number of URLs whose validators are remembered.
+     * @return The number of URLs.
+     */
+    public int getValidatorCount() {
+        return validators.size();
+    }
+
+    /**
+     * The validators per URL, in order of use, dropping the least recently used URL
+     * beyond the limit.
+     */
+    private static class ValidatorCache extends LinkedHashMap<String, Validators> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxEntries;     // URLs kept at most
+
+        private ValidatorCache(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = Math.max(1, maxEntries);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Validators> eldest) {
+            return size() > maxEntries;
+        }
+    }
+
+    /**
+     * The validators remembered for one URL.
+     */
+    private static class Validators {
+        private final String etag;            // ETag header, or null
+        private final String lastModified;    // Last-Modified header, or null
+        private final byte[] hash;            // Hash of the decoded body
+        private final long length;            // Size of the body on the wire
+
+        private Validators(String etag, String lastModified, byte[] hash, long length) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Reads a response body while it is received, e.g. by parsing it.
+     *
+     * @param <T> The type of what is read.
+     */
+    @FunctionalInterface
+    public interface BodyReader<T> {
+
+        /**
+         * Reads a body.
+         *
+         * @param in The decoded body. It need not be read to its end.
+         * @return What was read.
+         * @throws Exception If the body cannot be read.
+         */
+        T read(InputStream in) throws Exception;
+    }
+
+    /**
+     * Thrown when a BodyReader fails on a body the server sent, so the host was reached.
+     */
+    public static class BodyException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private BodyException(Throwable cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * Counts the bytes received on the wire and keeps the failure of the connection, to
+     * tell it apart from a failing BodyReader.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;             // Bytes read so far
+        private IOException failure;    // The failure of the connection, or null
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                int b = super.read();
+                if (b != -1) {
+                    count++;
+                }
+                return b;
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            try {
+                int read = super.read(buffer, offset, length);
+                if (read > 0) {
+                    count += read;
+                }
+                return read;
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * The result of a fetch whose body was read by a BodyReader.
+     *
+     * @param <T> The type of what was read.
+     */
+    public static class Result<T> {
+        private final T value;            // What the reader returned, null if there was no body
+        private final boolean modified;   // Whether the payload changed since the previous fetch
+
+        /**
+         * Constructor to create a Result.
+         *
+         * @param value    What the reader returned, null if there was no body.
+         * @param modified Whether the payload changed since the previous fetch.
+         */
+        Result(T value, boolean modified) {
+            this.value = value;
+            this.modified = modified;
+        }
+
+        /**
+         * Getter method to check whether the payload changed since the previous fetch.
+         * @return True if the payload is new or changed, false if it can be skipped.
+         */
+        public boolean isModified() {
+            return modified;
+        }
+
+        /**
+         * Getter method to retrieve what the reader read. An unchanged full body is still
+         * read, so the value is set, but it can be discarded.
+         * @return The value, or null if the server answered 304 Not Modified.
+         */
+        public T getValue() {
+            return value;
+        }
+    }
+
+    /**
+     * The result of a fetch.
+     */
+    public static class Response {
+        private final byte[] body;        // Decoded body, null for 304 responses
+        private final boolean modified;   // Whether the payload changed since the previous fetch
+
+        /**
+         * Constructor to create a Response, also used by sources that do not fetch over HTTP.
+         *
+         * @param body     The decoded body, null if not modified.
+         * @param modified Whether the payload changed since the previous fetch.
+         */
+        Response(byte[] body, boolean modified) {
+            this.body = body;
+            this.modified = modified;
+        }
+
+        /**
+         * Getter method to check whether the payload changed since the previous fetch.
+         * @return True if the payload is new or changed, false if it can be skipped.
+         */
+        public boolean isModified() {
+            return modified;
+        }
+
+        /**
+         * Getter method to retrieve the decoded body.
+         * @return The body, or null if the server answered 304 Not Modified.
+         */
+        public byte[] getBody() {
+            return body;
+        }
+
+        /**
+         * Opens the decoded body as a stream.
+         * @return A stream over the body.
+         */
+        public InputStream openBody() {
+            return new ByteArrayInputStream(body == null ? new byte[0] : body);
+        }
+    }
+}
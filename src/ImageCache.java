@@ -0,0 +1,260 @@
+import javax.imageio.ImageIO;
+import javax.swing.ImageIcon;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Two-tier cache for channel logos and program images.
+ *
+ * Decoded images are kept in memory already scaled to the size they are shown in,
+ * keyed by URL and size, in an LRU bounded by the number of pixel bytes. The original
+ * bytes are kept on disk so an image is downloaded at most once across restarts. The
+ * disk tier is bounded too: reading a file touches its modification time, and when the
+ * files exceed the budget the least recently modified are deleted.
+ */
+public class ImageCache {
+
+    private static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;   // Memory budget for decoded images
+    private static final long DEFAULT_MAX_DISK_BYTES = 64L * 1024 * 1024;   // Disk budget for original bytes
+
+    private static final Counter HITS = Metrics.counter("imageCache.hits");                    // Icons found in memory
+    private static final Counter MEMORY_MISSES = Metrics.counter("imageCache.memoryMisses");   // Icons not in memory
+    private static final Counter DISK_HITS = Metrics.counter("imageCache.diskHits");           // Images read from disk
+    private static final Counter MISSES = Metrics.counter("imageCache.misses");                // Images downloaded
+    private static final Counter DISK_EVICTIONS = Metrics.counter("imageCache.diskEvictions"); // Files deleted
+
+    static {
+        Metrics.ratio("imageCache.memory", HITS, MEMORY_MISSES);
+        Metrics.ratio("imageCache.disk", DISK_HITS, MISSES);
+    }
+
+    private final HttpFetcher fetcher;
+    private final File directory;                   // Directory holding the original bytes
+    private final long maxBytes;
+    private final long maxDiskBytes;
+    private final LinkedHashMap<String, ImageIcon> icons;   // Scaled icons in access order
+    private long bytes;                             // Pixel bytes currently held in memory
+    private long diskBytes;                         // Bytes of the files on disk, guarded by the directory
+
+    /**
+     * Constructor to create an ImageCache with the memory and disk budgets given by the
+     * system properties radioplan.imagecache.bytes and radioplan.imagecache.diskBytes,
+     * or the defaults of 32 MB and 64 MB.
+     *
+     * @param fetcher HttpFetcher used to download images that are not on disk.
+     */
+    public ImageCache(HttpFetcher fetcher) {
+        this(fetcher, AppDirectory.getFile("images"), Long.getLong("radioplan.imagecache.bytes", DEFAULT_MAX_BYTES),
+                Long.getLong("radioplan.imagecache.diskBytes", DEFAULT_MAX_DISK_BYTES));
+    }
+
+    /**
+     * Constructor to create an ImageCache with an explicit directory and budgets.
+     * Temporary files left behind by an earlier run are deleted.
+     *
+     * @param fetcher      HttpFetcher used to download images that are not on disk.
+     * @param directory    Directory where original image bytes are stored.
+     * @param maxBytes     Maximum number of pixel bytes kept in memory.
+     * @param maxDiskBytes Maximum number of bytes kept on disk.
+     */
+    public ImageCache(HttpFetcher fetcher, File directory, long maxBytes, long maxDiskBytes) {
+        this.fetcher = fetcher;
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.maxDiskBytes = maxDiskBytes;
+        this.icons = new LinkedHashMap<>(64, 0.75f, true);
+        directory.mkdirs();
+        synchronized (directory) {
+            for (File file : listFiles()) {
+                if (file.getName().endsWith(".tmp")) {
+                    file.delete();
+                } else {
+                    diskBytes += file.length();
+                }
+            }
+        }
+    }
+
+    /**
+     * Retrieves the image at the given URL scaled to the given size.
+     * Served from memory if possible, otherwise decoded from disk or downloaded.
+     *
+     * @param imageUrl The URL of the image.
+     * @param width    The width to scale to.
+     * @param height   The height to scale to.
+     * @return The scaled image as an icon.
+     * @throws IOException If the image cannot be downloaded or decoded.
+     */
+    public ImageIcon getIcon(String imageUrl, int width, int height) throws IOException {
+        String key = imageUrl + "@" + width + "x" + height;
+        synchronized (this) {
+            ImageIcon icon = icons.get(key);
+            if (icon != null) {
+                HITS.increment();
+                return icon;
+            }
+        }
+        MEMORY_MISSES.increment();
+
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(getBytes(imageUrl)));
+        if (image == null) {
+            throw new IOException("Unsupported image format: " + imageUrl);
+        }
+        ImageIcon icon = new ImageIcon(scale(image, width, height));
+        put(key, icon, (long) width * height * 4);
+        return icon;
+    }
+
+    /**
+     * Reads the original bytes of an image from disk, downloading them if needed.
+     *
+     * @param imageUrl The URL of the image.
+     * @return The bytes of the image.
+     * @throws IOException If the image cannot be downloaded.
+     */
+    private byte[] getBytes(String imageUrl) throws IOException {
+        File file = new File(directory, fileName(imageUrl));
+        if (file.isFile()) {
+            try {
+                byte[] data = Files.readAllBytes(file.toPath());
+                file.setLastModified(System.currentTimeMillis());
+                DISK_HITS.increment();
+                return data;
+            } catch (IOException e) {
+                // Evicted since the check, download it again
+            }
+        }
+        MISSES.increment();
+        byte[] data = fetcher.download(new URL(imageUrl));
+        // A temporary file of its own, so concurrent misses for the same URL do not collide
+        Path temp = Files.createTempFile(directory.toPath(), file.getName(), ".tmp");
+        try {
+            Files.write(temp, data);
+            Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        stored(data.length);
+        return data;
+    }
+
+    /**
+     * Accounts for a file written to disk and deletes the least recently used files
+     * while the disk budget is exceeded.
+     *
+     * @param size The size of the written file.
+     */
+    private void stored(long size) {
+        synchronized (directory) {
+            diskBytes += size;
+            if (diskBytes <= maxDiskBytes) {
+                return;
+            }
+            // Files still being written are neither counted nor evicted
+            File[] files = Arrays.stream(listFiles()).filter(file -> !file.getName().endsWith(".tmp"))
+                    .toArray(File[]::new);
+            long[] modified = new long[files.length];
+            diskBytes = 0;
+            for (int i = 0; i < files.length; i++) {
+                modified[i] = files[i].lastModified();
+                diskBytes += files[i].length();
+            }
+            Integer[] order = new Integer[files.length];
+            Arrays.setAll(order, i -> i);
+            Arrays.sort(order, Comparator.comparingLong(i -> modified[i]));
+            for (int i = 0; i < order.length && diskBytes > maxDiskBytes; i++) {
+                File file = files[order[i]];
+                long length = file.length();
+                if (file.delete()) {
+                    diskBytes -= length;
+                    DISK_EVICTIONS.increment();
+                }
+            }
+        }
+    }
+
+    /**
+     * Lists the files in the cache directory.
+     *
+     * @return The files, empty if the directory cannot be read.
+     */
+    private File[] listFiles() {
+        File[] files = directory.listFiles(File::isFile);
+        return files == null ? new File[0] : files;
+    }
+
+    /**
+     * Scales an image once into a buffer with the same smooth scaling as before,
+     * so drawing the cached icon does not scale again.
+     *
+     * @param image  The decoded image.
+     * @param width  The target width.
+     * @param height The target height.
+     * @return The scaled image.
+     */
+    private static BufferedImage scale(BufferedImage image, int width, int height) {
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = scaled.createGraphics();
+        graphics.drawImage(image.getScaledInstance(width, height, Image.SCALE_SMOOTH), 0, 0, null);
+        graphics.dispose();
+        return scaled;
+    }
+
+    /**
+     * Adds an icon to the memory tier and evicts the least recently used icons
+     * until the budget is respected.
+     *
+     * @param key  The key of the icon.
+     * @param icon The icon.
+     * @param size The number of pixel bytes of the icon.
+     */
+    private synchronized void put(String key, ImageIcon icon, long size) {
+        if (icons.put(key, icon) == null) {
+            bytes += size;
+        }
+        Iterator<Map.Entry<String, ImageIcon>> iterator = icons.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            ImageIcon evicted = iterator.next().getValue();
+            if (evicted == icon) {
+                break;
+            }
+            bytes -= (long) evicted.getIconWidth() * evicted.getIconHeight() * 4;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Derives the name of the file holding an image's bytes from its URL.
+     *
+     * @param imageUrl The URL of the image.
+     * @return The hex SHA-1 of the URL.
+     */
+    private static String fileName(String imageUrl) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(imageUrl.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
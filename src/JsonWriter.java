@@ -0,0 +1,153 @@
+/**
+ * Builds JSON text. Values are written in the order the methods are called and the
+ * writer inserts the commas between them; nesting is not validated.
+ */
+public class JsonWriter {
+
+    private final StringBuilder out;
+    private boolean first;      // Whether the next value is the first in its object or array
+
+    /**
+     * Constructor to create an empty JsonWriter.
+     */
+    public JsonWriter() {
+        out = new StringBuilder(1024);
+        first = true;
+    }
+
+    /**
+     * Starts an object.
+     * @return This writer.
+     */
+    public JsonWriter beginObject() {
+        separate();
+        out.append('{');
+        first = true;
+        return this;
+    }
+
+    /**
+     * Ends the current object.
+     * @return This writer.
+     */
+    public JsonWriter endObject() {
+        out.append('}');
+        first = false;
+        return this;
+    }
+
+    /**
+     * Starts an array.
+     * @return This writer.
+     */
+    public JsonWriter beginArray() {
+        separate();
+        out.append('[');
+        first = true;
+        return this;
+    }
+
+    /**
+     * Ends the current array.
+     * @return This writer.
+     */
+    public JsonWriter endArray() {
+        out.append(']');
+        first = false;
+        return this;
+    }
+
+    /**
+     * Writes the name of the next member of the current object.
+     *
+     * @param name The member name.
+     * @return This writer.
+     */
+    public JsonWriter name(String name) {
+        separate();
+        quote(name);
+        out.append(':');
+        first = true;   // The value directly follows the name without a comma
+        return this;
+    }
+
+    /**
+     * Writes a string value.
+     *
+     * @param value The value, or null.
+     * @return This writer.
+     */
+    public JsonWriter value(String value) {
+        separate();
+        if (value == null) {
+            out.append("null");
+        } else {
+            quote(value);
+        }
+        return this;
+    }
+
+    /**
+     * Writes a number value.
+     *
+     * @param value The value.
+     * @return This writer.
+     */
+    public JsonWriter value(long value) {
+        separate();
+        out.append(value);
+        return this;
+    }
+
+    /**
+     * Writes a comma unless the next value is the first of its container.
+     */
+    private void separate() {
+        if (!first) {
+            out.append(',');
+        }
+        first = false;
+    }
+
+    /**
+     * Writes a string literal with the characters JSON requires escaped.
+     *
+     * @param value The string.
+     */
+    private void quote(String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+                    break;
+            }
+        }
+        out.append('"');
+    }
+
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+}
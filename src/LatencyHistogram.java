@@ -0,0 +1,154 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations. Durations are counted in buckets of microseconds,
+ * four per power of two, so percentiles are reported within 25 percent of the true
+ * value. Recording is a few atomic additions and never blocks.
+ */
+public class LatencyHistogram implements LatencyHistogramMBean {
+
+    private static final int SUB_BUCKETS = 4;                    // Buckets per power of two
+    private static final int BUCKETS = 37 * SUB_BUCKETS;         // Up to 2^38 microseconds, about three days
+
+    private final AtomicLongArray buckets;    // Number of durations per bucket
+    private final LongAdder count;            // Number of durations
+    private final LongAdder totalNanos;       // Sum of the durations
+    private final AtomicLong maxNanos;        // Longest duration
+
+    /**
+     * Constructor to create an empty LatencyHistogram.
+     */
+    public LatencyHistogram() {
+        buckets = new AtomicLongArray(BUCKETS);
+        count = new LongAdder();
+        totalNanos = new LongAdder();
+        maxNanos = new AtomicLong();
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos The duration in nanoseconds.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(bucket(nanos / 1000));
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Records the time passed since a start time taken from System.nanoTime.
+     *
+     * @param startNanos The start time.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Finds the bucket of a duration.
+     *
+     * @param micros The duration in microseconds.
+     * @return The bucket index.
+     */
+    private static int bucket(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int octave = 63 - Long.numberOfLeadingZeros(micros);     // At least 2
+        int sub = (int) (micros >>> (octave - 2)) & (SUB_BUCKETS - 1);
+        return Math.min(BUCKETS - 1, (octave - 1) * SUB_BUCKETS + sub);
+    }
+
+    /**
+     * Computes the largest duration that falls in a bucket.
+     *
+     * @param bucket The bucket index.
+     * @return The upper bound in microseconds.
+     */
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int octave = bucket / SUB_BUCKETS + 1;
+        long width = 1L << (octave - 2);
+        return (SUB_BUCKETS + bucket % SUB_BUCKETS) * width + width - 1;
+    }
+
+    /**
+     * Estimates a percentile of the recorded durations.
+     *
+     * @param fraction The percentile as a fraction, e.g. 0.99.
+     * @return The upper bound of the bucket holding the percentile, in microseconds, or 0 if empty.
+     */
+    public long getPercentileMicros(double fraction) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), getMaxMicros());
+            }
+        }
+        return getMaxMicros();
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public long getMeanMicros() {
+        long n = count.sum();
+        return n == 0 ? 0 : totalNanos.sum() / n / 1000;
+    }
+
+    @Override
+    public long getMaxMicros() {
+        return maxNanos.get() / 1000;
+    }
+
+    @Override
+    public long getP50Micros() {
+        return getPercentileMicros(0.50);
+    }
+
+    @Override
+    public long getP95Micros() {
+        return getPercentileMicros(0.95);
+    }
+
+    @Override
+    public long getP99Micros() {
+        return getPercentileMicros(0.99);
+    }
+
+    /**
+     * Clears the histogram. Durations recorded concurrently may be partly kept.
+     */
+    @Override
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        totalNanos.reset();
+        maxNanos.set(0);
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * Management interface of a LatencyHistogram, shown in JConsole under radioplan:type=Latency.
+ */
+public interface LatencyHistogramMBean {
+
+    /**
+     * Getter method to retrieve the number of recorded durations.
+     * @return The number of durations.
+     */
+    long getCount();
+
+    /**
+     * Getter method to retrieve the mean duration.
+     * @return The mean in microseconds.
+     */
+    long getMeanMicros();
+
+    /**
+     * Getter method to retrieve the longest duration.
+     * @return The maximum in microseconds.
+     */
+    long getMaxMicros();
+
+    /**
+     * Getter method to retrieve the median duration.
+     * @return The 50th percentile in microseconds.
+     */
+    long getP50Micros();
+
+    /**
+     * Getter method to retrieve the 95th percentile duration.
+     * @return The 95th percentile in microseconds.
+     */
+    long getP95Micros();
+
+    /**
+     * Getter method to retrieve the 99th percentile duration.
+     * @return The 99th percentile in microseconds.
+     */
+    long getP99Micros();
+
+    /**
+     * Clears the recorded durations.
+     */
+    void reset();
+}
@@ -0,0 +1,35 @@
+import java.io.IOException;
+import java.time.LocalDate;
+
+/**
+ * Reads the channel list and the schedules from the Sveriges Radio API.
+ */
+public class LiveScheduleSource implements ScheduleSource {
+
+    private final ApiParser api;          // Builds the API URLs
+    private final HttpFetcher fetcher;    // Makes the requests
+
+    /**
+     * Constructor to create a LiveScheduleSource.
+     *
+     * @param api     ApiParser that builds the API URLs.
+     * @param fetcher HttpFetcher that makes the requests.
+     */
+    public LiveScheduleSource(ApiParser api, HttpFetcher fetcher) {
+        this.api = api;
+        this.fetcher = fetcher;
+    }
+
+    @Override
+    public HttpFetcher.Response fetchChannels(boolean conditional, RequestScheduler.Priority priority)
+            throws IOException {
+        return fetcher.fetch(api.getChannelsUrl(), conditional, priority);
+    }
+
+    @Override
+    public <T> HttpFetcher.Result<T> fetchSchedule(int channelId, LocalDate day, boolean conditional,
+                                                   RequestScheduler.Priority priority,
+                                                   HttpFetcher.BodyReader<T> reader) throws IOException {
+        return fetcher.fetch(api.getScheduleUrl(channelId, day), conditional, priority, reader);
+    }
+}
@@ -4,6 +4,20 @@ import javax.swing.UnsupportedLookAndFeelException;
 
 public class Main {
     public static void main(String[] args) {
+        if (args.length > 0 && "--headless".equals(args[0])) {
+            // Serve the schedules over HTTP instead of showing the GUI
+            System.setProperty("java.awt.headless", "true");
+            int port = args.length > 1 ? Integer.parseInt(args[1])
+                    : Integer.getInteger("radioplan.server.port", HeadlessServer.DEFAULT_PORT);
+            try {
+                new HeadlessServer(new ApiParser(), port).start();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return;
+        }
+        // Record what blocks the Event Dispatch Thread for longer than radioplan.edt.stall ms
+        EdtWatchdog.install();
         javax.swing.SwingUtilities.invokeLater(() -> {
             // Set the look and feel to the system look and feel
             try {
@@ -0,0 +1,230 @@
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the application's counters and latency histograms. Every metric is
+ * created on first use and registered with the platform MBean server under the
+ * radioplan domain, where JConsole can read it. The headless server also exports
+ * all metrics as JSON.
+ *
+ * Callers on hot paths keep the returned metric in a field instead of looking it up
+ * each time.
+ */
+public class Metrics {
+
+    private static final String DOMAIN = "radioplan";
+
+    private static final Map<String, LatencyHistogram> HISTOGRAMS = new ConcurrentHashMap<>();
+    private static final Map<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+    private static final Errors ERRORS = register("Errors", "errors", new Errors(), ErrorsMBean.class);
+
+    private Metrics() {
+    }
+
+    /**
+     * Retrieves the latency histogram with the given name, creating it on first use.
+     *
+     * @param name The name, e.g. fetch.scheduledepisodes.
+     * @return The histogram.
+     */
+    public static LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = HISTOGRAMS.get(name);
+        if (histogram != null) {
+            return histogram;
+        }
+        return HISTOGRAMS.computeIfAbsent(name,
+                key -> register("Latency", key, new LatencyHistogram(), LatencyHistogramMBean.class));
+    }
+
+    /**
+     * Retrieves the counter with the given name, creating it on first use.
+     *
+     * @param name The name, e.g. imageCache.hits.
+     * @return The counter.
+     */
+    public static Counter counter(String name) {
+        Counter counter = COUNTERS.get(name);
+        if (counter != null) {
+            return counter;
+        }
+        return COUNTERS.computeIfAbsent(name, key -> register("Counter", key, new Counter(), CounterMBean.class));
+    }
+
+    /**
+     * Registers the hit ratio of a cache computed from its counters.
+     *
+     * @param name   The name of the cache.
+     * @param hits   The counter of hits.
+     * @param misses The counter of misses.
+     */
+    public static void ratio(String name, Counter hits, Counter misses) {
+        register("Ratio", name, new HitRatio(hits, misses), HitRatioMBean.class);
+    }
+
+    /**
+     * Records an error that was handled without reaching the user.
+     *
+     * @param stage Where the error happened, e.g. refresh.
+     * @param error The error.
+     */
+    public static void recordError(String stage, Throwable error) {
+        counter("errors." + stage).increment();
+        ERRORS.record(stage, error);
+    }
+
+    /**
+     * Writes all metrics as a JSON object.
+     *
+     * @param json The writer.
+     */
+    public static void writeJson(JsonWriter json) {
+        json.beginObject().name("counters").beginObject();
+        for (Map.Entry<String, Counter> entry : new TreeMap<>(COUNTERS).entrySet()) {
+            json.name(entry.getKey()).value(entry.getValue().getCount());
+        }
+        json.endObject().name("latencies").beginObject();
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(HISTOGRAMS).entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            json.name(entry.getKey()).beginObject()
+                    .name("count").value(histogram.getCount())
+                    .name("meanMicros").value(histogram.getMeanMicros())
+                    .name("p50Micros").value(histogram.getP50Micros())
+                    .name("p95Micros").value(histogram.getP95Micros())
+                    .name("p99Micros").value(histogram.getP99Micros())
+                    .name("maxMicros").value(histogram.getMaxMicros())
+                    .endObject();
+        }
+        json.endObject().name("lastError").value(ERRORS.getLastError()).endObject();
+    }
+
+    /**
+     * Registers a metric or other managed object with the platform MBean server. An
+     * object that cannot be registered is still returned and usable, it is just not
+     * visible over JMX.
+     *
+     * @param type          The type key of the object name.
+     * @param name          The name key of the object name.
+     * @param metric        The metric.
+     * @param interfaceType The management interface of the metric.
+     * @param <T>           The type of the metric.
+     * @return The metric.
+     */
+    public static <T> T register(String type, String name, T metric, Class<? super T> interfaceType) {
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + name);
+            @SuppressWarnings("unchecked")
+            Class<Object> managementInterface = (Class<Object>) interfaceType;
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(new StandardMBean(metric, managementInterface), objectName);
+        } catch (JMException e) {
+            // Already registered by another instance, or JMX is unavailable
+        }
+        return metric;
+    }
+
+    /**
+     * Management interface of a cache hit ratio.
+     */
+    public interface HitRatioMBean {
+
+        /**
+         * Getter method to retrieve the fraction of lookups that were hits.
+         * @return The hit ratio between 0 and 1, or 0 before the first lookup.
+         */
+        double getHitRatio();
+
+        /**
+         * Getter method to retrieve the number of hits.
+         * @return The number of hits.
+         */
+        long getHits();
+
+        /**
+         * Getter method to retrieve the number of misses.
+         * @return The number of misses.
+         */
+        long getMisses();
+    }
+
+    /**
+     * Hit ratio of a cache computed from its hit and miss counters.
+     */
+    private static class HitRatio implements HitRatioMBean {
+        private final Counter hits;       // Lookups answered by the cache
+        private final Counter misses;     // Lookups that had to load
+
+        private HitRatio(Counter hits, Counter misses) {
+            this.hits = hits;
+            this.misses = misses;
+        }
+
+        @Override
+        public double getHitRatio() {
+            long hitCount = hits.getCount();
+            long total = hitCount + misses.getCount();
+            return total == 0 ? 0 : (double) hitCount / total;
+        }
+
+        @Override
+        public long getHits() {
+            return hits.getCount();
+        }
+
+        @Override
+        public long getMisses() {
+            return misses.getCount();
+        }
+    }
+
+    /**
+     * Management interface of the recorded errors.
+     */
+    public interface ErrorsMBean {
+
+        /**
+         * Getter method to retrieve the number of recorded errors.
+         * @return The number of errors.
+         */
+        long getCount();
+
+        /**
+         * Getter method to retrieve the latest recorded error.
+         * @return The stage and message of the latest error, or null.
+         */
+        String getLastError();
+    }
+
+    /**
+     * The errors recorded with recordError.
+     */
+    private static class Errors implements ErrorsMBean {
+        private final Counter count = new Counter();    // Number of errors
+        private volatile String lastError;              // Stage and message of the latest error
+
+        /**
+         * Records an error.
+         *
+         * @param stage Where the error happened.
+         * @param error The error.
+         */
+        private void record(String stage, Throwable error) {
+            count.increment();
+            lastError = stage + ": " + error;
+        }
+
+        @Override
+        public long getCount() {
+            return count.getCount();
+        }
+
+        @Override
+        public String getLastError() {
+            return lastError;
+        }
+    }
+}
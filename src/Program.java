@@ -6,20 +6,22 @@ public class Program {
     private String title;         // Title of the program
     private String subtitle;      // Subtitle of the program (optional)
     private String description;   // Description of the program
-    private String startTime;     // Start time of the program
-    private String endTime;       // End time of the program
+    private long startTime;       // Start time of the program in epoch milliseconds (UTC)
+    private long endTime;         // End time of the program in epoch milliseconds (UTC)
 
-    private int id;               // Unique identifier for the program
+    private int id;               // Episode id from the API, 0 if the episode has none
     private String imageUrl;      // URL of the image associated with the program (optional)
+    private int programId;        // Id of the show the episode belongs to, 0 if unknown
+    private String programName;   // Name of the show the episode belongs to (optional)
 
     /**
      * Constructor to create a Program object with essential attributes.
      * @param title The title of the program.
      * @param description The description of the program.
-     * @param startTime The start time of the program.
-     * @param endTime The end time of the program.
+     * @param startTime The start time of the program in epoch milliseconds.
+     * @param endTime The end time of the program in epoch milliseconds.
      */
-    public Program(String title, String description, String startTime, String endTime){
+    public Program(String title, String description, long startTime, long endTime){
         this.title = title;
         this.description = description;
         this.startTime = startTime;
@@ -45,17 +47,17 @@ public class Program {
 
     /**
      * Getter method to retrieve the start time of the program.
-     * @return The start time of the program.
+     * @return The start time of the program in epoch milliseconds.
      */
-    public String getStartTime(){
+    public long getStartTime(){
         return startTime;
     }
 
     /**
      * Getter method to retrieve the end time of the program.
-     * @return The end time of the program.
+     * @return The end time of the program in epoch milliseconds.
      */
-    public String getEndTime(){
+    public long getEndTime(){
         return endTime;
     }
 
@@ -101,9 +103,49 @@ public class Program {
 
     /**
      * Getter method to retrieve the ID of the program.
-     * @return The ID of the program.
+     * @return The episode id of the program, or 0 if it has none.
      */
     public int getId(){
         return id;
     }
+
+    /**
+     * Setter method to set the ID of the program.
+     * @param id The episode id.
+     */
+    public void setId(int id){
+        this.id = id;
+    }
+
+    /**
+     * Getter method to retrieve the ID of the show the program belongs to.
+     * @return The show id, or 0 if unknown.
+     */
+    public int getProgramId(){
+        return programId;
+    }
+
+    /**
+     * Setter method to set the ID of the show the program belongs to.
+     * @param programId The show id.
+     */
+    public void setProgramId(int programId){
+        this.programId = programId;
+    }
+
+    /**
+     * Getter method to retrieve the name of the show the program belongs to.
+     * @return The show name, or null if unknown.
+     */
+    public String getProgramName(){
+        return programName;
+    }
+
+    /**
+     * Setter method to set the name of the show the program belongs to.
+     * @param programName The show name.
+     */
+    public void setProgramName(String programName){
+        this.programName = programName;
+    }
 }
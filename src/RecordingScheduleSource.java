@@ -0,0 +1,98 @@
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Passes requests on to another source and writes every response body to a directory,
+ * one file per channel list or channel and day, for ReplayScheduleSource to serve later.
+ * A response without a body, such as 304 Not Modified, leaves the earlier recording.
+ * The time the channel list was last fetched is written as the time of the recording,
+ * which a replay runs at.
+ */
+public class RecordingScheduleSource implements ScheduleSource {
+
+    static final String CHANNELS_FILE = "channels.xml";     // Name of the recorded channel list
+    static final String RECORDED_AT_FILE = "recorded-at.txt";   // Name of the time of the recording
+
+    private final ScheduleSource delegate;    // The source that is recorded
+    private final File directory;             // Where the responses are written
+
+    /**
+     * Constructor to create a RecordingScheduleSource.
+     *
+     * @param delegate  The source to record, usually a LiveScheduleSource.
+     * @param directory The directory the responses are written to, created if needed.
+     */
+    public RecordingScheduleSource(ScheduleSource delegate, File directory) {
+        this.delegate = delegate;
+        this.directory = directory;
+    }
+
+    @Override
+    public HttpFetcher.Response fetchChannels(boolean conditional, RequestScheduler.Priority priority)
+            throws IOException {
+        Instant fetched = Instant.now();
+        HttpFetcher.Response response = delegate.fetchChannels(conditional, priority);
+        record(CHANNELS_FILE, response);
+        write(RECORDED_AT_FILE, fetched.toString().getBytes(StandardCharsets.UTF_8));
+        return response;
+    }
+
+    @Override
+    public <T> HttpFetcher.Result<T> fetchSchedule(int channelId, LocalDate day, boolean conditional,
+                                                   RequestScheduler.Priority priority,
+                                                   HttpFetcher.BodyReader<T> reader) throws IOException {
+        // The body is written as a whole, so only a recording holds it in memory
+        String name = scheduleFile(channelId, day);
+        return delegate.fetchSchedule(channelId, day, conditional, priority, in -> {
+            byte[] body = in.readAllBytes();
+            write(name, body);
+            return reader.read(new ByteArrayInputStream(body));
+        });
+    }
+
+    /**
+     * Names the recording of a schedule.
+     *
+     * @param channelId The id of the channel.
+     * @param day       The day.
+     * @return The file name, e.g. schedule-132-2024-01-31.xml.
+     */
+    static String scheduleFile(int channelId, LocalDate day) {
+        return "schedule-" + channelId + "-" + day.format(DateTimeFormatter.ISO_LOCAL_DATE) + ".xml";
+    }
+
+    /**
+     * Writes the body of a response, replacing an earlier recording atomically.
+     *
+     * @param name     The name of the file.
+     * @param response The response.
+     * @throws IOException If the file cannot be written.
+     */
+    private void record(String name, HttpFetcher.Response response) throws IOException {
+        if (response.getBody() != null) {
+            write(name, response.getBody());
+        }
+    }
+
+    /**
+     * Writes a file of the recording, replacing an earlier one atomically.
+     *
+     * @param name The name of the file.
+     * @param data The content.
+     * @throws IOException If the file cannot be written.
+     */
+    private void write(String name, byte[] data) throws IOException {
+        directory.mkdirs();
+        File file = new File(directory, name);
+        File temp = new File(directory, name + ".tmp");
+        Files.write(temp.toPath(), data);
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
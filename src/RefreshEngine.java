@@ -0,0 +1,342 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fetches the schedules of several channels in parallel from a ScheduleSource. Every
+ * channel and day page is fetched as its own task on the RequestScheduler, with the
+ * priority of the refresh, and a channel's schedule is only replaced once all of its
+ * pages have arrived.
+ *
+ * Parsed pages are kept per channel and day as CompactSchedules. When the server
+ * reports a page as unchanged the kept programs are reused without parsing, and a
+ * channel whose schedule ends up with the same content is left untouched so the GUI
+ * does not need to redraw it.
+ *
+ * Page fetches are coalesced per channel and day. A refresh that asks for a page
+ * another refresh is already fetching, for example when a channel is selected twice
+ * in a row, waits for that fetch instead of sending the same request again. A waiting
+ * fetch joined by a more urgent refresh is promoted to its priority, so a channel the
+ * user selects is not held up behind the prefetch that queued it first. A fetch that
+ * every waiting refresh gave up on, for example at its deadline, is cancelled: taken
+ * off the queue if it has not started, interrupted otherwise.
+ *
+ * The hourly refresh only moves the ±12 hour window: see advance. Pages of days that
+ * are still in the window are reused without a request, so only the day that enters
+ * the window is downloaded and parsed.
+ */
+public class RefreshEngine {
+
+    private static final long DEFAULT_DEADLINE_MILLIS = 30_000;   // Deadline for a whole refresh
+    private static final long DEFAULT_MAX_AGE_MILLIS = 6 * 60 * 60 * 1000;   // Age at which advance revalidates a page
+
+    private static final LatencyHistogram REFRESH_LATENCY = Metrics.histogram("refresh");
+    private static final LatencyHistogram PARSE_LATENCY = Metrics.histogram("parse.schedule");
+    private static final Counter PARSED_PROGRAMS = Metrics.counter("parse.programs");
+    private static final Counter PAGE_HITS = Metrics.counter("pageCache.hits");
+    private static final Counter PAGE_MISSES = Metrics.counter("pageCache.misses");
+    private static final Counter TIMEOUTS = Metrics.counter("refresh.timeouts");
+    private static final Counter SKIPPED_REQUESTS = Metrics.counter("refresh.skippedRequests");
+
+    static {
+        Metrics.ratio("pageCache", PAGE_HITS, PAGE_MISSES);
+    }
+
+    private final ApiParser api;
+    private final ScheduleSource source;
+    private final RequestScheduler scheduler;
+    private final long deadlineMillis;
+    private final long maxAgeMillis;
+
+    private final Map<String, Page> pages;   // Last parsed page per channel and day
+    private final SingleFlight<String, Page> flights;    // Page fetches in flight per channel and day
+    private final Map<String, RequestScheduler.Ticket> tickets;  // Latest queued page fetch per channel and day
+    private final AtomicLong parses;         // Number of pages parsed
+
+    /**
+     * Constructor to create a RefreshEngine with the limits given by the system properties
+     * radioplan.refresh.deadline and radioplan.refresh.maxAge, or the defaults. The number
+     * of parallel requests is limited by the scheduler.
+     *
+     * @param api       ApiParser used to parse the schedules.
+     * @param source    ScheduleSource the schedules are fetched from.
+     * @param scheduler RequestScheduler the page fetches run on.
+     */
+    public RefreshEngine(ApiParser api, ScheduleSource source, RequestScheduler scheduler) {
+        this(api, source, scheduler, Long.getLong("radioplan.refresh.deadline", DEFAULT_DEADLINE_MILLIS),
+                Long.getLong("radioplan.refresh.maxAge", DEFAULT_MAX_AGE_MILLIS));
+    }
+
+    /**
+     * Constructor to create a RefreshEngine with explicit limits.
+     *
+     * @param api            ApiParser used to parse the schedules.
+     * @param source         ScheduleSource the schedules are fetched from.
+     * @param scheduler      RequestScheduler the page fetches run on.
+     * @param deadlineMillis Maximum duration of one refresh in milliseconds.
+     * @param maxAgeMillis   Age in milliseconds after which advance revalidates a kept page.
+     */
+    public RefreshEngine(ApiParser api, ScheduleSource source, RequestScheduler scheduler, long deadlineMillis,
+                         long maxAgeMillis) {
+        this.api = api;
+        this.source = source;
+        this.scheduler = scheduler;
+        this.deadlineMillis = deadlineMillis;
+        this.maxAgeMillis = maxAgeMillis;
+        this.pages = new ConcurrentHashMap<>();
+        this.flights = new SingleFlight<>("refresh.pages");
+        this.tickets = new ConcurrentHashMap<>();
+        this.parses = new AtomicLong();
+    }
+
+    /**
+     * Refreshes the schedules of the given channels. All day pages are fetched in parallel.
+     * A channel whose pages all arrive before the deadline is marked as cached and gets its
+     * schedule replaced unless it is unchanged; the others keep their previous schedule.
+     *
+     * @param channels The channels to refresh.
+     * @param priority The priority of the requests, INTERACTIVE when the user waits for them.
+     * @return The number of channels whose pages all arrived.
+     * @throws InterruptedException If the calling thread is interrupted while waiting.
+     */
+    public int refresh(Collection<Channel> channels, RequestScheduler.Priority priority) throws InterruptedException {
+        return refresh(channels, true, priority);
+    }
+
+    /**
+     * Moves the schedules of the given channels to the current time range. Programs that
+     * have left the range are dropped, and only pages that are not kept yet, typically the
+     * day that just entered the range, are fetched. Kept pages older than the maximum age
+     * are revalidated as in refresh. The requests have REFRESH priority.
+     *
+     * @param channels The channels to advance.
+     * @return The number of channels whose pages all arrived.
+     * @throws InterruptedException If the calling thread is interrupted while waiting.
+     */
+    public int advance(Collection<Channel> channels) throws InterruptedException {
+        return refresh(channels, false, RequestScheduler.Priority.REFRESH);
+    }
+
+    /**
+     * Refreshes the schedules of the given channels.
+     *
+     * @param channels   The channels to refresh.
+     * @param revalidate Whether kept pages are revalidated with the server even when recent.
+     * @param priority   The priority of the requests.
+     * @return The number of channels whose pages all arrived.
+     * @throws InterruptedException If the calling thread is interrupted while waiting.
+     */
+    private int refresh(Collection<Channel> channels, boolean revalidate, RequestScheduler.Priority priority)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        // The time range follows the clock of the ApiParser, which a replay sets to its recording
+        List<LocalDate> days = api.getScheduleDays(LocalDateTime.now(api.getClock()));
+        pages.values().removeIf(page -> !days.contains(page.day));
+        tickets.values().removeIf(RequestScheduler.Ticket::isStarted);
+        // Pages age on the same clock, so a replay revalidates them by the time of the source
+        long staleBefore = api.getClock().millis() - maxAgeMillis;
+
+        // Submit every page first so all requests are in flight at once
+        Map<Channel, List<Future<Page>>> pending = new LinkedHashMap<>();
+        for (Channel channel : channels) {
+            List<Future<Page>> channelPages = new ArrayList<>(days.size());
+            for (LocalDate day : days) {
+                String key = channel.getId() + "/" + day;
+                Page kept = pages.get(key);
+                if (!revalidate && kept != null && kept.validatedMillis > staleBefore) {
+                    PAGE_HITS.increment();
+                    SKIPPED_REQUESTS.increment();
+                    channelPages.add(CompletableFuture.completedFuture(kept));
+                } else {
+                    channelPages.add(flights.submit(key, () -> fetchDay(channel, day, key, priority),
+                            request -> tickets.put(key, scheduler.submit(priority, request))));
+                    // Joining a fetch queued with a lower priority moves it up
+                    RequestScheduler.Ticket ticket = tickets.get(key);
+                    if (ticket != null) {
+                        ticket.promote(priority);
+                    }
+                }
+            }
+            pending.put(channel, channelPages);
+        }
+
+        int refreshed = 0;
+        long now = api.getClock().millis();
+        for (Map.Entry<Channel, List<Future<Page>>> entry : pending.entrySet()) {
+            CompactSchedule.Builder merged = new CompactSchedule.Builder(64);
+            boolean complete = true;
+            for (int d = 0; d < days.size(); d++) {
+                Future<Page> future = entry.getValue().get(d);
+                String key = entry.getKey().getId() + "/" + days.get(d);
+                if (!complete) {
+                    cancel(key, future);
+                    continue;
+                }
+                try {
+                    Page page = future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    // Only programs starting within the time range, see ApiParser.filterTimeRange
+                    for (int i = 0; i < page.programs.size(); i++) {
+                        if (api.isWithinTimeRange(page.programs.getStartTime(i), now)) {
+                            merged.add(page.programs, i);
+                        }
+                    }
+                } catch (ExecutionException e) {
+                    complete = false;
+                    if (e.getCause() instanceof IOException) {
+                        api.handleIOException(entry.getKey(), (IOException) e.getCause());
+                    } else {
+                        Metrics.recordError("refresh", e.getCause());
+                    }
+                } catch (TimeoutException e) {
+                    cancel(key, future);
+                    complete = false;
+                    TIMEOUTS.increment();
+                }
+            }
+            if (complete) {
+                Channel channel = entry.getKey();
+                CompactSchedule schedule = merged.build();
+                List<Program> current = channel.getProgrammes();
+                if (!(channel.isProgramCached() && current instanceof CompactSchedule
+                        && schedule.sameContent((CompactSchedule) current))) {
+                    channel.setProgrammes(schedule);
+                }
+                channel.setProgramCached(true);
+                refreshed++;
+            }
+        }
+        REFRESH_LATENCY.recordSince(start);
+        return refreshed;
+    }
+
+    /**
+     * Gives up on a page fetch. If no other refresh still waits for it, the fetch is
+     * abandoned and its request is taken off the scheduler's queue unless it has started.
+     *
+     * @param key    The key of the page.
+     * @param future The future of the page.
+     */
+    private void cancel(String key, Future<Page> future) {
+        RequestScheduler.Ticket ticket = tickets.get(key);
+        future.cancel(true);
+        if (ticket != null && !flights.isInFlight(key) && tickets.remove(key, ticket)) {
+            ticket.cancel();
+        }
+    }
+
+    /**
+     * Fetches and parses the schedule of one channel for one day.
+     *
+     * The body is parsed while it is received. A page the server reports as not modified
+     * is not parsed, but an unchanged full body is only known once it has been parsed, so
+     * that parse is discarded.
+     *
+     * @param channel  The channel whose schedule is fetched.
+     * @param day      The day to fetch.
+     * @param key      The key of the page, made of the channel id and the day.
+     * @param priority The priority of the request.
+     * @return The page, reused from the previous fetch if the server reports it unchanged.
+     * @throws Exception If the page cannot be fetched or parsed.
+     */
+    private Page fetchDay(Channel channel, LocalDate day, String key, RequestScheduler.Priority priority)
+            throws Exception {
+        Page cached = pages.get(key);
+
+        // Without a kept page the body is needed, so the request must not be conditional
+        HttpFetcher.Result<List<Program>> result;
+        try {
+            result = source.fetchSchedule(channel.getId(), day, cached != null, priority,
+                    in -> parseDay(in, channel));
+        } catch (HttpFetcher.BodyException e) {
+            // The failure of the parse itself, as if the body had been parsed here
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+        if (!result.isModified() && cached != null) {
+            PAGE_HITS.increment();
+            cached.validatedMillis = api.getClock().millis();
+            return cached;
+        }
+        PAGE_MISSES.increment();
+        Page page = new Page(day, CompactSchedule.of(result.getValue()), api.getClock().millis());
+        pages.put(key, page);
+        return page;
+    }
+
+    /**
+     * Parses the body of a schedule while it is received. The parse latency therefore
+     * includes the time the body takes to arrive.
+     *
+     * @param in      The body.
+     * @param channel The channel of the schedule.
+     * @return The programs.
+     * @throws Exception If the parse was abandoned or the body cannot be parsed.
+     */
+    private List<Program> parseDay(InputStream in, Channel channel) throws Exception {
+        if (Thread.interrupted()) {
+            // Abandoned while the request waited, the parse is not needed
+            throw new InterruptedException();
+        }
+        long start = System.nanoTime();
+        List<Program> programs = api.parseSchedule(in, channel);
+        PARSE_LATENCY.recordSince(start);
+        PARSED_PROGRAMS.add(programs.size());
+        parses.incrementAndGet();
+        return programs;
+    }
+
+    /**
+     * Checks whether the schedule of a channel is due for a refresh, that is whether a page
+     * of the current time range is not kept, for example after a restart, or is older than
+     * the maximum age.
+     *
+     * @param channel The channel.
+     * @return True if a refresh of the channel would fetch or revalidate a page.
+     */
+    public boolean isStale(Channel channel) {
+        long staleBefore = api.getClock().millis() - maxAgeMillis;
+        for (LocalDate day : api.getScheduleDays(LocalDateTime.now(api.getClock()))) {
+            Page kept = pages.get(channel.getId() + "/" + day);
+            if (kept == null || kept.validatedMillis <= staleBefore) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Getter method to retrieve the number of schedule pages parsed so far.
+     * @return The number of parsed pages.
+     */
+    public long getParseCount() {
+        return parses.get();
+    }
+
+    /**
+     * The parsed programs of one channel and day, unfiltered by time range.
+     */
+    private static class Page {
+        private final LocalDate day;                  // The day of the page
+        private final CompactSchedule programs;       // All programs of the page
+        private volatile long validatedMillis;        // When the server last confirmed the page, on the api clock
+
+        private Page(LocalDate day, CompactSchedule programs, long validatedMillis) {
+            this.day = day;
+            this.programs = programs;
+            this.validatedMillis = validatedMillis;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serves responses recorded by RecordingScheduleSource instead of asking the API, either
+ * read from the recording directory on every request or held in memory.
+ *
+ * Every response is delayed by a fixed latency on the workers of a RequestScheduler, so
+ * rate limits and priorities behave as they do against the API. A conditional request for
+ * a response already served unchanged is answered as not modified, like a 304.
+ *
+ * A replay of a directory runs at a fixed time, so every replay of a recording asks for
+ * the same days and keeps the same programs whenever it is run. The time is the one
+ * given by radioplan.source.clock as a local date and time, e.g. 2024-01-31T12:00, or
+ * else the time the recording was made. A day that was not recorded, for example at a
+ * time given by radioplan.source.clock outside the recorded days, fails with
+ * FileNotFoundException like a missing page of the API, so the channel keeps its
+ * previous schedule.
+ */
+public class ReplayScheduleSource implements ScheduleSource {
+
+    private final RequestScheduler scheduler;
+    private final File directory;                 // Recording directory, null when served from memory
+    private final Map<String, byte[]> responses;  // Recorded bodies by file name when served from memory
+    private final long latencyMillis;             // Delay of every response
+    private final Map<String, byte[]> served;     // Body last served per file name
+    private final Clock clock;                    // The time the replay runs at
+
+    /**
+     * Constructor to create a ReplayScheduleSource reading the recordings from disk, at the
+     * time of the recording or the time given by radioplan.source.clock.
+     *
+     * @param scheduler     The scheduler the responses are served on.
+     * @param directory     The directory written by RecordingScheduleSource.
+     * @param latencyMillis The delay of every response in milliseconds.
+     */
+    public ReplayScheduleSource(RequestScheduler scheduler, File directory, long latencyMillis) {
+        this(scheduler, directory, null, latencyMillis, replayClock(directory));
+    }
+
+    /**
+     * Constructor to create a ReplayScheduleSource serving responses held in memory, at
+     * the current time.
+     *
+     * @param scheduler     The scheduler the responses are served on.
+     * @param responses     The bodies by file name, named as RecordingScheduleSource names them.
+     * @param latencyMillis The delay of every response in milliseconds.
+     */
+    public ReplayScheduleSource(RequestScheduler scheduler, Map<String, byte[]> responses, long latencyMillis) {
+        this(scheduler, null, Map.copyOf(responses), latencyMillis, Clock.systemDefaultZone());
+    }
+
+    /**
+     * Constructor to create a ReplayScheduleSource from either a directory or a map.
+     *
+     * @param scheduler     The scheduler the responses are served on.
+     * @param directory     The recording directory, or null.
+     * @param responses     The bodies by file name, or null.
+     * @param latencyMillis The delay of every response in milliseconds.
+     * @param clock         The time the replay runs at.
+     */
+    private ReplayScheduleSource(RequestScheduler scheduler, File directory, Map<String, byte[]> responses,
+                                 long latencyMillis, Clock clock) {
+        this.scheduler = scheduler;
+        this.directory = directory;
+        this.responses = responses;
+        this.latencyMillis = Math.max(0, latencyMillis);
+        this.served = new ConcurrentHashMap<>();
+        this.clock = clock;
+    }
+
+    /**
+     * Determines the time a replay of a directory runs at.
+     *
+     * @param directory The recording directory.
+     * @return A clock fixed at the time given by radioplan.source.clock or else at the time
+     *         of the recording, or the system clock for a recording without a time.
+     */
+    private static Clock replayClock(File directory) {
+        ZoneId zone = ZoneId.systemDefault();
+        String time = System.getProperty("radioplan.source.clock");
+        if (time != null) {
+            try {
+                return Clock.fixed(LocalDateTime.parse(time).atZone(zone).toInstant(), zone);
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Ogiltig tid för uppspelning: " + time, e);
+            }
+        }
+        try {
+            File recordedAt = new File(directory, RecordingScheduleSource.RECORDED_AT_FILE);
+            String text = new String(Files.readAllBytes(recordedAt.toPath()), StandardCharsets.UTF_8);
+            return Clock.fixed(Instant.parse(text.trim()), zone);
+        } catch (IOException | DateTimeParseException e) {
+            // Recorded before the time was written, replayed at the current time
+            return Clock.systemDefaultZone();
+        }
+    }
+
+    @Override
+    public Clock getClock() {
+        return clock;
+    }
+
+    @Override
+    public HttpFetcher.Response fetchChannels(boolean conditional, RequestScheduler.Priority priority)
+            throws IOException {
+        return scheduler.call(priority, () -> serve(RecordingScheduleSource.CHANNELS_FILE, conditional));
+    }
+
+    @Override
+    public <T> HttpFetcher.Result<T> fetchSchedule(int channelId, LocalDate day, boolean conditional,
+                                                   RequestScheduler.Priority priority,
+                                                   HttpFetcher.BodyReader<T> reader) throws IOException {
+        return scheduler.call(priority, () -> HttpFetcher.read(
+                serve(RecordingScheduleSource.scheduleFile(channelId, day), conditional), reader));
+    }
+
+    /**
+     * Waits for the latency and serves a recording.
+     *
+     * @param name        The file name of the recording.
+     * @param conditional Whether an unchanged response is answered as not modified.
+     * @return The response.
+     * @throws IOException          If there is no such recording or it cannot be read.
+     * @throws InterruptedException If interrupted during the latency.
+     */
+    private HttpFetcher.Response serve(String name, boolean conditional) throws IOException, InterruptedException {
+        if (latencyMillis > 0) {
+            Thread.sleep(latencyMillis);
+        }
+        byte[] body = read(name);
+        byte[] previous = served.put(name, body);
+        if (conditional && previous != null && Arrays.equals(previous, body)) {
+            return new HttpFetcher.Response(null, false);
+        }
+        return new HttpFetcher.Response(body, true);
+    }
+
+    /**
+     * Reads a recording.
+     *
+     * @param name The file name of the recording.
+     * @return The body.
+     * @throws IOException If there is no such recording or it cannot be read.
+     */
+    private byte[] read(String name) throws IOException {
+        if (responses != null) {
+            byte[] body = responses.get(name);
+            if (body == null) {
+                throw new FileNotFoundException(name);
+            }
+            return body;
+        }
+        try {
+            return Files.readAllBytes(new File(directory, name).toPath());
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException(name);
+        }
+    }
+}
@@ -0,0 +1,350 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs the requests against the API and the image servers on a fixed set of worker
+ * threads, limiting both how many are in flight and how many are started per second.
+ *
+ * Requests are queued by priority: interactive requests, such as loading the channel the
+ * user just selected, before refresh requests, before background prefetching. The rate is
+ * limited with a token bucket. Part of the workers and part of the bucket are reserved
+ * for interactive requests, so a long refresh that keeps every other worker busy and the
+ * bucket empty never makes a channel selection wait for it.
+ */
+public class RequestScheduler {
+
+    private static final int DEFAULT_CONCURRENCY = 8;             // Requests in flight at most
+    private static final int DEFAULT_RESERVED = 2;                // Workers and tokens kept for interactive requests
+    private static final double DEFAULT_RATE = 20;                // Requests started per second in the long run
+    private static final int DEFAULT_BURST = 20;                  // Requests that may start at once after a pause
+
+    private static final Counter THROTTLED = Metrics.counter("requests.throttled");
+
+    /**
+     * The priority classes of requests, most urgent first.
+     */
+    public enum Priority {
+        INTERACTIVE,    // Waited for by the user
+        REFRESH,        // Keeps schedules that are already shown up to date
+        BACKGROUND;     // Loads data ahead of time
+
+        private final LatencyHistogram queueWait =
+                Metrics.histogram("requests.wait." + name().toLowerCase(Locale.ROOT));
+    }
+
+    private final int concurrency;
+    private final int reserved;
+    private final double ratePerNano;       // Tokens added per nanosecond, 0 for no rate limit
+    private final int burst;
+
+    private final Object lock = new Object();         // Guards the fields below and wakes the workers
+    private final EnumMap<Priority, ArrayDeque<Ticket>> queues;   // Waiting requests per priority
+    private int runningShared;                        // Running requests that are not interactive
+    private double tokens;                            // Tokens in the bucket
+    private long refilledNanos;                       // When the bucket was last refilled
+    private boolean shutdown;
+
+    private final ThreadLocal<Boolean> onWorker = ThreadLocal.withInitial(() -> false);
+
+    /**
+     * Constructor to create a RequestScheduler with the limits given by the system
+     * properties radioplan.requests.concurrency, radioplan.requests.reserved,
+     * radioplan.requests.rate and radioplan.requests.burst, or the defaults.
+     */
+    public RequestScheduler() {
+        this(Integer.getInteger("radioplan.requests.concurrency", DEFAULT_CONCURRENCY),
+                Integer.getInteger("radioplan.requests.reserved", DEFAULT_RESERVED),
+                Double.parseDouble(System.getProperty("radioplan.requests.rate", String.valueOf(DEFAULT_RATE))),
+                Integer.getInteger("radioplan.requests.burst", DEFAULT_BURST));
+    }
+
+    /**
+     * Constructor to create a RequestScheduler with explicit limits.
+     *
+     * @param concurrency   Maximum number of requests in flight.
+     * @param reserved      Workers and tokens only interactive requests may use.
+     * @param ratePerSecond Requests started per second in the long run, 0 for no limit.
+     * @param burst         Size of the token bucket.
+     */
+    public RequestScheduler(int concurrency, int reserved, double ratePerSecond, int burst) {
+        this.concurrency = Math.max(1, concurrency);
+        this.reserved = Math.max(0, Math.min(reserved, this.concurrency - 1));
+        this.ratePerNano = Math.max(0, ratePerSecond) / 1e9;
+        this.burst = Math.max(1 + this.reserved, burst);
+        this.queues = new EnumMap<>(Priority.class);
+        for (Priority priority : Priority.values()) {
+            queues.put(priority, new ArrayDeque<>());
+        }
+        this.tokens = this.burst;
+        this.refilledNanos = System.nanoTime();
+        for (int i = 1; i <= this.concurrency; i++) {
+            Thread worker = new Thread(this::work, "request-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    /**
+     * Queues a request.
+     *
+     * @param priority The priority of the request.
+     * @param request  The request.
+     * @return The ticket of the request, which can raise its priority while it waits.
+     * @throws RejectedExecutionException If the scheduler is shut down.
+     */
+    public Ticket submit(Priority priority, Runnable request) {
+        Ticket ticket = new Ticket(request, priority);
+        synchronized (lock) {
+            if (shutdown) {
+                throw new RejectedExecutionException("RequestScheduler is shut down");
+            }
+            queues.get(priority).addLast(ticket);
+            lock.notifyAll();
+        }
+        return ticket;
+    }
+
+    /**
+     * Runs a request through the scheduler and waits for its result. A request made from
+     * within a scheduled request runs directly, as it already holds a worker.
+     *
+     * @param priority The priority of the request.
+     * @param request  The request.
+     * @param <T>      The type of the result.
+     * @return The result of the request.
+     * @throws IOException If the request fails or the wait is interrupted.
+     */
+    public <T> T call(Priority priority, Callable<T> request) throws IOException {
+        if (onWorker.get()) {
+            return callDirectly(request);
+        }
+        FutureTask<T> task = new FutureTask<>(request);
+        Ticket ticket = submit(priority, task);
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            ticket.cancel();
+            task.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a request");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Runs a request on the calling worker.
+     *
+     * @param request The request.
+     * @param <T>     The type of the result.
+     * @return The result of the request.
+     * @throws IOException If the request fails.
+     */
+    private static <T> T callDirectly(Callable<T> request) throws IOException {
+        try {
+            return request.call();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Stops the workers. Requests that are still queued are dropped, and callers waiting
+     * in call for one of them get a CancellationException.
+     */
+    public void shutdown() {
+        synchronized (lock) {
+            shutdown = true;
+            for (ArrayDeque<Ticket> queue : queues.values()) {
+                for (Ticket ticket : queue) {
+                    if (ticket.request instanceof Future) {
+                        ((Future<?>) ticket.request).cancel(false);
+                    }
+                }
+                queue.clear();
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Getter method to retrieve the number of requests waiting with a priority.
+     * @param priority The priority.
+     * @return The number of queued requests.
+     */
+    public int getQueuedCount(Priority priority) {
+        synchronized (lock) {
+            return queues.get(priority).size();
+        }
+    }
+
+    /**
+     * Takes requests off the queues and runs them until shut down.
+     */
+    private void work() {
+        onWorker.set(true);
+        while (true) {
+            Ticket ticket;
+            synchronized (lock) {
+                try {
+                    ticket = awaitNext();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (ticket == null) {
+                    return;
+                }
+            }
+            ticket.priority.queueWait.recordSince(ticket.queuedNanos);
+            try {
+                ticket.request.run();
+            } catch (RuntimeException e) {
+                Metrics.recordError("request", e);
+            } finally {
+                // A cancelled request may have interrupted the worker, which must go on serving
+                Thread.interrupted();
+                synchronized (lock) {
+                    if (ticket.priority != Priority.INTERACTIVE) {
+                        runningShared--;
+                    }
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until a request may start and takes it off its queue. Interactive requests
+     * need one token; other requests need a worker and a token outside the reserved ones.
+     * Called with the lock held.
+     *
+     * @return The request, or null when shut down.
+     * @throws InterruptedException If the worker is interrupted.
+     */
+    private Ticket awaitNext() throws InterruptedException {
+        boolean throttled = false;
+        while (!shutdown) {
+            refill();
+            long waitNanos = 0;     // Time until a waiting request gets its tokens, 0 if none is waiting for tokens
+            for (Priority priority : Priority.values()) {
+                ArrayDeque<Ticket> queue = queues.get(priority);
+                if (queue.isEmpty()) {
+                    continue;
+                }
+                boolean interactive = priority == Priority.INTERACTIVE;
+                if (!interactive && runningShared >= concurrency - reserved) {
+                    continue;
+                }
+                double needed = interactive ? 1 : 1 + reserved;
+                if (tokens >= needed) {
+                    Ticket ticket = queue.removeFirst();
+                    ticket.started = true;
+                    tokens--;
+                    if (!interactive) {
+                        runningShared++;
+                    }
+                    if (throttled) {
+                        THROTTLED.increment();
+                    }
+                    return ticket;
+                }
+                long untilTokens = (long) Math.ceil((needed - tokens) / ratePerNano);
+                waitNanos = waitNanos == 0 ? untilTokens : Math.min(waitNanos, untilTokens);
+            }
+            if (waitNanos > 0) {
+                throttled = true;
+                lock.wait(Math.max(1, waitNanos / 1_000_000));
+            } else {
+                lock.wait();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds the tokens earned since the last refill. Called with the lock held.
+     */
+    private void refill() {
+        long now = System.nanoTime();
+        if (ratePerNano == 0) {
+            tokens = burst;
+        } else {
+            tokens = Math.min(burst, tokens + (now - refilledNanos) * ratePerNano);
+        }
+        refilledNanos = now;
+    }
+
+    /**
+     * A queued request.
+     */
+    public class Ticket {
+        private final Runnable request;       // The request
+        private final long queuedNanos;       // When the request was queued
+        private Priority priority;            // The current priority, guarded by lock
+        private boolean started;              // Whether a worker took the request, guarded by lock
+
+        private Ticket(Runnable request, Priority priority) {
+            this.request = request;
+            this.priority = priority;
+            this.queuedNanos = System.nanoTime();
+        }
+
+        /**
+         * Raises the priority of the request if it is still waiting, for example when the
+         * user asks for a page that the prefetch has queued.
+         *
+         * @param higher The new priority, ignored unless more urgent than the current one.
+         */
+        public void promote(Priority higher) {
+            synchronized (lock) {
+                if (!started && higher.ordinal() < priority.ordinal()
+                        && queues.get(priority).remove(this)) {
+                    priority = higher;
+                    queues.get(higher).addLast(this);
+                    lock.notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Removes the request from its queue if it has not started.
+         */
+        public void cancel() {
+            synchronized (lock) {
+                if (!started) {
+                    queues.get(priority).remove(this);
+                }
+            }
+        }
+
+        /**
+         * Getter method to check whether a worker has taken the request.
+         * @return True if the request has started.
+         */
+        public boolean isStarted() {
+            synchronized (lock) {
+                return started;
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Loads the schedules of channels the user has not selected yet, so that the first
+ * click on a channel is usually answered from the cache.
+ *
+ * The prefetch runs on one low priority thread and loads one channel at a time,
+ * Rikskanaler first and then the channels selected most often. It pauses while a load
+ * started by the user is running, waits with a growing backoff when the API cannot be
+ * reached, and stops once it has used up its byte budget. Its requests have BACKGROUND
+ * priority, so the RequestScheduler runs them only when no other request is waiting.
+ *
+ * A prefetched channel is not part of the hourly refresh until the user selects it, see
+ * ActionHandler.periodicChannels, so the prefetch costs one load per channel and not one
+ * per channel and hour. Instead the prefetch loads it again once its pages are older than
+ * the maximum age of the RefreshEngine, or are not kept at all, as after a restart where
+ * the schedule came from the snapshot.
+ */
+public class SchedulePrefetcher {
+
+    private static final long DEFAULT_BUDGET_BYTES = 5L * 1024 * 1024;     // Bytes one prefetch run may download
+    private static final long INITIAL_BACKOFF_MILLIS = 5_000;              // First wait after a failed load
+    private static final long MAX_BACKOFF_MILLIS = 5 * 60_000;             // Longest wait after failed loads
+
+    private final RefreshEngine refreshEngine;
+    private final HttpFetcher fetcher;
+    private final UsageStats usageStats;
+    private final long budgetBytes;
+
+    private final Object lock = new Object();   // Guards userLoads and wakes the paused thread
+    private int userLoads;                      // Loads started by the user that are still running
+    private Thread thread;                      // The running prefetch, or null
+
+    /**
+     * Constructor to create a SchedulePrefetcher with the byte budget given by the system
+     * property radioplan.prefetch.bytes, or the default.
+     *
+     * @param refreshEngine RefreshEngine used to load the schedules.
+     * @param fetcher       HttpFetcher whose traffic is counted against the budget.
+     * @param usageStats    Selection counts that order the channels.
+     */
+    public SchedulePrefetcher(RefreshEngine refreshEngine, HttpFetcher fetcher, UsageStats usageStats) {
+        this.refreshEngine = refreshEngine;
+        this.fetcher = fetcher;
+        this.usageStats = usageStats;
+        this.budgetBytes = Long.getLong("radioplan.prefetch.bytes", DEFAULT_BUDGET_BYTES);
+    }
+
+    /**
+     * Starts prefetching the uncached and outdated schedules of the given channels,
+     * replacing a prefetch already running. Uncached channels are loaded first.
+     *
+     * @param channels   The channels to consider.
+     * @param onFinished Run on the prefetch thread after a run that loaded at least one schedule.
+     */
+    public synchronized void start(Collection<Channel> channels, Runnable onFinished) {
+        stop();
+        List<Channel> queue = new ArrayList<>();
+        for (Channel channel : channels) {
+            if (needsLoad(channel)) {
+                queue.add(channel);
+            }
+        }
+        if (queue.isEmpty()) {
+            return;
+        }
+        queue.sort(Comparator.comparing(Channel::isProgramCached)
+                .thenComparing((Channel channel) -> channel.getType() != ChannelType.RIKSKANAL)
+                .thenComparing(channel -> -usageStats.getCount(channel.getId())));
+
+        thread = new Thread(() -> run(queue, onFinished), "schedule-prefetch");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Stops the running prefetch, if any.
+     */
+    public synchronized void stop() {
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    /**
+     * Loads the queued channels one at a time.
+     *
+     * @param queue      The channels in prefetch order.
+     * @param onFinished Run after the last channel if anything was loaded.
+     */
+    private void run(List<Channel> queue, Runnable onFinished) {
+        long startBytes = fetcher.getBytesReceived();
+        long backoff = INITIAL_BACKOFF_MILLIS;
+        int loaded = 0;
+        try {
+            int index = 0;
+            while (index < queue.size()) {
+                awaitNoUserLoads();
+                // The budget counts everything the fetcher received meanwhile, user loads included
+                if (fetcher.getBytesReceived() - startBytes >= budgetBytes) {
+                    break;
+                }
+                Channel channel = queue.get(index);
+                if (!needsLoad(channel)) {
+                    index++;    // The user selected it meanwhile
+                    continue;
+                }
+                if (refreshEngine.refresh(List.of(channel), RequestScheduler.Priority.BACKGROUND) > 0) {
+                    loaded++;
+                    index++;
+                    backoff = INITIAL_BACKOFF_MILLIS;
+                } else {
+                    // The API is failing or its circuit is open, retry the same channel later
+                    Thread.sleep(backoff);
+                    backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stopped or replaced by a newer prefetch
+        }
+        if (loaded > 0) {
+            onFinished.run();
+        }
+    }
+
+    /**
+     * Checks whether the prefetch should load a channel: when it has no schedule, or when
+     * only the prefetch keeps its schedule and the schedule is outdated. Channels the user
+     * has selected are kept up to date by the hourly refresh instead.
+     *
+     * @param channel The channel.
+     * @return True if the channel should be loaded.
+     */
+    private boolean needsLoad(Channel channel) {
+        if (!channel.isProgramCached()) {
+            return true;
+        }
+        return usageStats.getCount(channel.getId()) == 0 && refreshEngine.isStale(channel);
+    }
+
+    /**
+     * Blocks the prefetch thread while a load started by the user is running.
+     *
+     * @throws InterruptedException If the prefetch is stopped while waiting.
+     */
+    private void awaitNoUserLoads() throws InterruptedException {
+        synchronized (lock) {
+            while (userLoads > 0) {
+                lock.wait();
+            }
+        }
+    }
+
+    /**
+     * Marks the start of a load started by the user. The prefetch pauses before its next
+     * channel until every such load has ended.
+     */
+    public void beginUserLoad() {
+        synchronized (lock) {
+            userLoads++;
+        }
+    }
+
+    /**
+     * Marks the end of a load started with beginUserLoad.
+     */
+    public void endUserLoad() {
+        synchronized (lock) {
+            userLoads--;
+            lock.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Stores the channels and their cached schedules in a compact binary file so the
+ * application can render immediately at startup and revalidate in the background.
+ *
+ * The file starts with a magic number and a format version followed by the channels.
+ * Strings are stored as a length in bytes followed by UTF-8, with -1 meaning null,
+ * and times as epoch milliseconds.
+ */
+public class ScheduleSnapshot {
+
+    private static final int MAGIC = 0x52504C53;    // "RPLS"
+    private static final int VERSION = 3;           // Bumped whenever the layout changes
+
+    private ScheduleSnapshot() {
+    }
+
+    /**
+     * Writes the channels and their schedules to the given file. The file is replaced
+     * atomically so a crash during saving never leaves a truncated snapshot behind.
+     *
+     * @param channels The channels to save.
+     * @param file     The snapshot file.
+     * @throws IOException If the file cannot be written.
+     */
+    public static synchronized void save(Collection<Channel> channels, File file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        List<Channel> copy = new ArrayList<>(channels);
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(copy.size());
+        for (Channel channel : copy) {
+            List<Program> programs = channel.getProgrammes();
+            out.writeInt(channel.getId());
+            writeString(out, channel.getName());
+            writeString(out, channel.getChannelType());
+            writeString(out, channel.getImageUrl());
+            writeString(out, channel.getAbout());
+            out.writeBoolean(channel.isProgramCached());
+            out.writeInt(programs.size());
+            for (Program program : programs) {
+                writeString(out, program.getTitle());
+                writeString(out, program.getSubtitle());
+                writeString(out, program.getDescription());
+                out.writeLong(program.getStartTime());
+                out.writeLong(program.getEndTime());
+                writeString(out, program.getImageUrl());
+                out.writeInt(program.getId());
+                out.writeInt(program.getProgramId());
+                writeString(out, program.getProgramName());
+            }
+        }
+        out.flush();
+
+        File temp = new File(file.getPath() + ".tmp");
+        Files.write(temp.toPath(), bytes.toByteArray());
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the channels and their schedules from the given file using a memory mapping.
+     *
+     * @param file The snapshot file.
+     * @return The saved channels, or an empty list if the file is missing, outdated or corrupt.
+     */
+    public static List<Channel> load(File file) {
+        List<Channel> channels = new ArrayList<>();
+        if (!file.isFile()) {
+            return channels;
+        }
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return channels;
+            }
+            int channelCount = buffer.getInt();
+            for (int i = 0; i < channelCount; i++) {
+                int id = buffer.getInt();
+                Channel channel = new Channel(readString(buffer), id, readString(buffer),
+                        readString(buffer), readString(buffer));
+                boolean cached = buffer.get() != 0;
+                int programCount = buffer.getInt();
+                if (programCount > buffer.remaining()) {
+                    throw new BufferUnderflowException();
+                }
+                List<Program> programs = new ArrayList<>(programCount);
+                for (int j = 0; j < programCount; j++) {
+                    String title = readString(buffer);
+                    String subtitle = readString(buffer);
+                    String description = readString(buffer);
+                    Program program = new Program(title, description, buffer.getLong(), buffer.getLong());
+                    program.setSubtitle(subtitle);
+                    program.setImageUrl(readString(buffer));
+                    program.setId(buffer.getInt());
+                    program.setProgramId(buffer.getInt());
+                    program.setProgramName(readString(buffer));
+                    programs.add(program);
+                }
+                channel.setProgrammes(CompactSchedule.of(programs));
+                channel.setProgramCached(cached);
+                channels.add(channel);
+            }
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            channels.clear();
+        }
+        return channels;
+    }
+
+    /**
+     * Writes a nullable string as its UTF-8 length followed by the bytes.
+     *
+     * @param out   The output to write to.
+     * @param value The string, or null.
+     * @throws IOException If writing fails.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] data = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    /**
+     * Reads a nullable string written by writeString.
+     *
+     * @param buffer The buffer to read from.
+     * @return The string, or null.
+     * @throws BufferUnderflowException If the length points past the end of the file.
+     */
+    private static String readString(MappedByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            // A corrupt length, rejected before it is allocated
+            throw new BufferUnderflowException();
+        }
+        byte[] data = new byte[length];
+        buffer.get(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+}
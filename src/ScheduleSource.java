@@ -0,0 +1,79 @@
+import java.io.File;
+import java.io.IOException;
+import java.time.Clock;
+import java.time.LocalDate;
+
+/**
+ * Where the channel list and the schedules are read from. The live source asks the
+ * Sveriges Radio API, a recording source also writes every response to disk, and a
+ * replay source serves recorded responses with an injected latency, so the whole
+ * ingestion path can be run and profiled offline and deterministically.
+ *
+ * The source is chosen with -Dradioplan.source=live|record|replay. Recordings are kept in
+ * the directory given by radioplan.source.dir, by default recordings in the application
+ * directory, and radioplan.source.latency sets the latency of a replay in milliseconds.
+ * A replay runs at the time of its recording, see ReplayScheduleSource.
+ */
+public interface ScheduleSource {
+
+    /**
+     * Fetches the channel list.
+     *
+     * @param conditional False to always get the body and have it reported as modified.
+     * @param priority    The priority of the request.
+     * @return The response.
+     * @throws IOException If the channel list cannot be fetched.
+     */
+    HttpFetcher.Response fetchChannels(boolean conditional, RequestScheduler.Priority priority) throws IOException;
+
+    /**
+     * Fetches the schedule of one channel for one day and reads it with a BodyReader,
+     * while it is received where the source allows it.
+     *
+     * @param channelId   The id of the channel.
+     * @param day         The day.
+     * @param conditional False to always get the body and have it reported as modified.
+     * @param priority    The priority of the request.
+     * @param reader      Reads the body, not called if the schedule is not modified.
+     * @param <T>         The type of what the reader returns.
+     * @return The result.
+     * @throws IOException If the schedule cannot be fetched, or a BodyException if the
+     *                     reader fails.
+     */
+    <T> HttpFetcher.Result<T> fetchSchedule(int channelId, LocalDate day, boolean conditional,
+                                            RequestScheduler.Priority priority, HttpFetcher.BodyReader<T> reader)
+            throws IOException;
+
+    /**
+     * Getter method to retrieve the clock the schedules of this source are read against.
+     * The ApiParser is set to it, so the time range of the schedules follows it.
+     * @return The clock, the system clock unless the source replays a recording.
+     */
+    default Clock getClock() {
+        return Clock.systemDefaultZone();
+    }
+
+    /**
+     * Creates the source selected by the system properties.
+     *
+     * @param api     ApiParser that builds the API URLs.
+     * @param fetcher HttpFetcher used by the live source, whose scheduler also runs replays.
+     * @return The source.
+     */
+    static ScheduleSource fromProperties(ApiParser api, HttpFetcher fetcher) {
+        String mode = System.getProperty("radioplan.source", "live");
+        String dir = System.getProperty("radioplan.source.dir");
+        File directory = dir != null ? new File(dir) : AppDirectory.getFile("recordings");
+        switch (mode) {
+            case "record":
+                return new RecordingScheduleSource(new LiveScheduleSource(api, fetcher), directory);
+            case "replay":
+                return new ReplayScheduleSource(fetcher.getScheduler(), directory,
+                        Long.getLong("radioplan.source.latency", 0));
+            case "live":
+                return new LiveScheduleSource(api, fetcher);
+            default:
+                throw new IllegalArgumentException("Okänd källa för tablåer: " + mode);
+        }
+    }
+}
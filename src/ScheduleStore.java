@@ -0,0 +1,282 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Time index over the cached schedules of all channels.
+ *
+ * All programs are kept in arrays sorted by start time, both across channels and per
+ * channel. Questions such as what is on now, what starts soon and what overlaps an
+ * interval are answered with binary searches instead of scanning every schedule.
+ * A store is an immutable snapshot; build a new one when schedules change.
+ */
+public class ScheduleStore {
+
+    private final ChannelIndex[] indexes;     // Per channel index in channel id order
+    private final long[] starts;              // Start times of all programs, sorted
+    private final int[] entryChannels;        // Per sorted program, its index in indexes
+    private final int[] entryPositions;       // Per sorted program, its position in the channel index
+    private final long maxDuration;           // Longest program, bounds the overlap search
+
+    /**
+     * Constructor to create a store over prepared channel indexes.
+     *
+     * @param indexes The per channel indexes in channel id order.
+     */
+    private ScheduleStore(ChannelIndex[] indexes) {
+        this.indexes = indexes;
+        int total = 0;
+        for (ChannelIndex index : indexes) {
+            total += index.starts.length;
+        }
+        // Sort all programs by start time, keeping channel id order for equal times
+        Integer[] order = new Integer[total];
+        int[] channelOf = new int[total];
+        int[] positionOf = new int[total];
+        long[] startOf = new long[total];
+        long longest = 0;
+        int next = 0;
+        for (int c = 0; c < indexes.length; c++) {
+            ChannelIndex index = indexes[c];
+            for (int position = 0; position < index.starts.length; position++) {
+                order[next] = next;
+                channelOf[next] = c;
+                positionOf[next] = position;
+                startOf[next] = index.starts[position];
+                longest = Math.max(longest, index.ends[position] - index.starts[position]);
+                next++;
+            }
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> startOf[i]));
+        this.starts = new long[total];
+        this.entryChannels = new int[total];
+        this.entryPositions = new int[total];
+        for (int i = 0; i < total; i++) {
+            starts[i] = startOf[order[i]];
+            entryChannels[i] = channelOf[order[i]];
+            entryPositions[i] = positionOf[order[i]];
+        }
+        this.maxDuration = longest;
+    }
+
+    /**
+     * Builds a store over the current schedules of the given channels. The store keeps
+     * the schedules, not copies of their programs, so a CompactSchedule stays compact.
+     *
+     * @param channelsMap The channels, for example ApiParser.getChannelsMap().
+     * @return The store.
+     */
+    public static ScheduleStore build(Map<Integer, Channel> channelsMap) {
+        List<Channel> sortedChannels = new ArrayList<>(channelsMap.values());
+        sortedChannels.sort(Comparator.comparingInt(Channel::getId));
+
+        List<ChannelIndex> indexes = new ArrayList<>();
+        for (Channel channel : sortedChannels) {
+            List<Program> programs = channel.getProgrammes();
+            if (!programs.isEmpty()) {
+                indexes.add(new ChannelIndex(channel, programs));
+            }
+        }
+        return new ScheduleStore(indexes.toArray(new ChannelIndex[0]));
+    }
+
+    /**
+     * Finds the program on air on every channel at the given time.
+     *
+     * @param time The time in epoch milliseconds.
+     * @return The program on air per channel, for channels that have one, in channel id order.
+     */
+    public List<Entry> onAirAt(long time) {
+        List<Entry> result = new ArrayList<>();
+        for (ChannelIndex index : indexes) {
+            int position = index.onAirAt(time);
+            if (position >= 0) {
+                result.add(new Entry(index.channel, index.programAt(position)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Finds the programs on all channels that start within the given duration from a time.
+     *
+     * @param time     The time in epoch milliseconds.
+     * @param duration The length of the window in milliseconds, e.g. 30 minutes.
+     * @return The programs starting in [time, time + duration), sorted by start time.
+     */
+    public List<Entry> startingWithin(long time, long duration) {
+        int from = lowerBound(starts, time);
+        int to = lowerBound(starts, time + duration);
+        List<Entry> result = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            result.add(entryAt(i));
+        }
+        return result;
+    }
+
+    /**
+     * Finds the programs on all channels that overlap the interval [from, to).
+     *
+     * @param from The start of the interval in epoch milliseconds.
+     * @param to   The end of the interval in epoch milliseconds.
+     * @return The overlapping programs, sorted by start time.
+     */
+    public List<Entry> overlapping(long from, long to) {
+        // No program starting before from - maxDuration can still be running at from
+        int first = lowerBound(starts, from - maxDuration);
+        int last = lowerBound(starts, to);
+        List<Entry> result = new ArrayList<>();
+        for (int i = first; i < last; i++) {
+            if (indexes[entryChannels[i]].ends[entryPositions[i]] > from) {
+                result.add(entryAt(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Getter method to retrieve the number of indexed programs.
+     * @return The number of programs.
+     */
+    public int size() {
+        return starts.length;
+    }
+
+    /**
+     * Creates the entry of a program in start time order.
+     *
+     * @param i The index of the program among all programs sorted by start time.
+     * @return The entry.
+     */
+    private Entry entryAt(int i) {
+        ChannelIndex index = indexes[entryChannels[i]];
+        return new Entry(index.channel, index.programAt(entryPositions[i]));
+    }
+
+    /**
+     * Finds the first index whose value is at least the key.
+     *
+     * @param values Sorted values.
+     * @param key    The key.
+     * @return The index, or values.length if all values are smaller.
+     */
+    private static int lowerBound(long[] values, long key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * A program together with the channel it is broadcast on.
+     */
+    public static class Entry {
+        private final Channel channel;    // The channel of the program
+        private final Program program;    // The program
+
+        private Entry(Channel channel, Program program) {
+            this.channel = channel;
+            this.program = program;
+        }
+
+        /**
+         * Getter method to retrieve the channel of the program.
+         * @return The channel.
+         */
+        public Channel getChannel() {
+            return channel;
+        }
+
+        /**
+         * Getter method to retrieve the program.
+         * @return The program.
+         */
+        public Program getProgram() {
+            return program;
+        }
+    }
+
+    /**
+     * The schedule of one channel sorted by start time.
+     */
+    private static class ChannelIndex {
+        private final Channel channel;            // The channel
+        private final List<Program> programs;     // The schedule of the channel
+        private final int[] order;                // Indexes into programs by start time, null if already sorted
+        private final long[] starts;              // Start times in start time order
+        private final long[] ends;                // End times in start time order
+
+        private ChannelIndex(Channel channel, List<Program> programs) {
+            this.channel = channel;
+            this.programs = programs;
+            int size = programs.size();
+            long[] unsortedStarts = new long[size];
+            long[] unsortedEnds = new long[size];
+            boolean sorted = true;
+            for (int i = 0; i < size; i++) {
+                if (programs instanceof CompactSchedule) {
+                    unsortedStarts[i] = ((CompactSchedule) programs).getStartTime(i);
+                    unsortedEnds[i] = ((CompactSchedule) programs).getEndTime(i);
+                } else {
+                    Program program = programs.get(i);
+                    unsortedStarts[i] = program.getStartTime();
+                    unsortedEnds[i] = program.getEndTime();
+                }
+                sorted &= i == 0 || unsortedStarts[i - 1] <= unsortedStarts[i];
+            }
+            if (sorted) {
+                this.order = null;
+                this.starts = unsortedStarts;
+                this.ends = unsortedEnds;
+            } else {
+                Integer[] byStart = new Integer[size];
+                for (int i = 0; i < size; i++) {
+                    byStart[i] = i;
+                }
+                Arrays.sort(byStart, Comparator.comparingLong(i -> unsortedStarts[i]));
+                this.order = new int[size];
+                this.starts = new long[size];
+                this.ends = new long[size];
+                for (int i = 0; i < size; i++) {
+                    order[i] = byStart[i];
+                    starts[i] = unsortedStarts[byStart[i]];
+                    ends[i] = unsortedEnds[byStart[i]];
+                }
+            }
+        }
+
+        /**
+         * Retrieves a program by its position in start time order.
+         *
+         * @param position The position.
+         * @return The program.
+         */
+        private Program programAt(int position) {
+            return programs.get(order == null ? position : order[position]);
+        }
+
+        /**
+         * Finds the program on air at the given time.
+         *
+         * @param time The time in epoch milliseconds.
+         * @return The position of the latest program started at or before the time that has
+         *         not ended, or -1.
+         */
+        private int onAirAt(long time) {
+            int position = lowerBound(starts, time + 1) - 1;
+            if (position >= 0 && ends[position] > time) {
+                return position;
+            }
+            return -1;
+        }
+    }
+}
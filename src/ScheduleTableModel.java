@@ -0,0 +1,184 @@
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Table model for the schedule table backed directly by a list of programs.
+ *
+ * When a new schedule is set it is compared with the rows shown, and only the rows
+ * that were removed, added or changed are reported to the table. An hourly refresh
+ * that moves the time range therefore fires one deletion at the top and one insertion
+ * at the bottom instead of rebuilding the whole table.
+ */
+public class ScheduleTableModel extends AbstractTableModel {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String[] COLUMN_NAMES = {"Title", "Start Time", "End Time"};
+
+    private final List<Program> rows;     // The programs shown, in table order
+
+    /**
+     * Constructor to create an empty ScheduleTableModel.
+     */
+    public ScheduleTableModel() {
+        rows = new ArrayList<>();
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        Program program = rows.get(row);
+        switch (column) {
+            case 0:
+                return program.getTitle();
+            case 1:
+                return TimeFormat.formatDisplay(program.getStartTime());
+            default:
+                return TimeFormat.formatDisplay(program.getEndTime());
+        }
+    }
+
+    /**
+     * Retrieves the program shown in a row.
+     *
+     * @param row The row index in the model.
+     * @return The program of the row.
+     */
+    public Program getProgramAt(int row) {
+        return rows.get(row);
+    }
+
+    /**
+     * Finds the row showing the same broadcast as the given program.
+     *
+     * @param program The program to look for.
+     * @return The row index, or -1 if the program is not shown.
+     */
+    public int indexOf(Program program) {
+        for (int i = 0; i < rows.size(); i++) {
+            if (compareKeys(rows.get(i), program) == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Shows a new schedule, firing only the events needed to turn the current rows into it.
+     * Both schedules are expected in start time order; otherwise the table is reloaded.
+     *
+     * @param programs The new schedule.
+     */
+    public void setPrograms(List<Program> programs) {
+        if (programs instanceof CompactSchedule) {
+            // Create the programs once instead of on every get
+            programs = new ArrayList<>(programs);
+        }
+        if (!isSorted(programs)) {
+            rows.clear();
+            rows.addAll(programs);
+            fireTableDataChanged();
+            return;
+        }
+
+        int i = 0;  // Position in the rows, which are edited in place as events are fired
+        int j = 0;  // Position in the new schedule
+        while (i < rows.size() || j < programs.size()) {
+            if (j == programs.size()) {
+                int last = rows.size() - 1;
+                rows.subList(i, rows.size()).clear();
+                fireTableRowsDeleted(i, last);
+                break;
+            }
+            if (i == rows.size()) {
+                rows.addAll(programs.subList(j, programs.size()));
+                fireTableRowsInserted(i, rows.size() - 1);
+                break;
+            }
+
+            int order = compareKeys(rows.get(i), programs.get(j));
+            if (order == 0) {
+                Program previous = rows.set(i, programs.get(j));
+                if (!sameContent(previous, programs.get(j))) {
+                    fireTableRowsUpdated(i, i);
+                }
+                i++;
+                j++;
+            } else if (order < 0) {
+                // Rows before the next new program are gone, remove them as one run
+                int end = i + 1;
+                while (end < rows.size() && compareKeys(rows.get(end), programs.get(j)) < 0) {
+                    end++;
+                }
+                rows.subList(i, end).clear();
+                fireTableRowsDeleted(i, end - 1);
+            } else {
+                // New programs before the current row are inserted as one run
+                int end = j + 1;
+                while (end < programs.size() && compareKeys(programs.get(end), rows.get(i)) < 0) {
+                    end++;
+                }
+                rows.addAll(i, programs.subList(j, end));
+                fireTableRowsInserted(i, i + end - j - 1);
+                i += end - j;
+                j = end;
+            }
+        }
+    }
+
+    /**
+     * Orders programs by start time and title, which identifies a broadcast on a channel.
+     *
+     * @param a The first program.
+     * @param b The second program.
+     * @return A negative number, zero or a positive number as a is before, equal to or after b.
+     */
+    private static int compareKeys(Program a, Program b) {
+        int order = Long.compare(a.getStartTime(), b.getStartTime());
+        return order != 0 ? order : a.getTitle().compareTo(b.getTitle());
+    }
+
+    /**
+     * Checks whether two programs with the same key show the same values.
+     *
+     * @param a The first program.
+     * @param b The second program.
+     * @return True if nothing shown or used by the table differs.
+     */
+    private static boolean sameContent(Program a, Program b) {
+        return a == b || (a.getEndTime() == b.getEndTime()
+                && Objects.equals(a.getDescription(), b.getDescription())
+                && Objects.equals(a.getImageUrl(), b.getImageUrl()));
+    }
+
+    /**
+     * Checks whether a schedule is in key order.
+     *
+     * @param programs The schedule.
+     * @return True if every program is ordered after the one before it.
+     */
+    private static boolean isSorted(List<Program> programs) {
+        for (int i = 1; i < programs.size(); i++) {
+            if (compareKeys(programs.get(i - 1), programs.get(i)) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
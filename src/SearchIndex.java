@@ -0,0 +1,523 @@
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Full-text index over the titles, subtitles and descriptions of the cached programs of
+ * all channels.
+ *
+ * Words are lowercased and folded to their base letters, so "får" finds "Far" and
+ * "cafe" finds "Café", and common Swedish words are left out. Every query word is matched
+ * as a prefix of the indexed words, which makes the index usable while the user types.
+ * The index is updated per channel: a channel is reindexed only when its schedule has been
+ * replaced, which the refresh does only when the content changes.
+ *
+ * Searches run on the Event Dispatch Thread and never wait for an update. An update builds
+ * the next state of the index on a copy of the current one, copying the postings of a word
+ * only when a changed channel uses it, and then publishes it in one write. A search uses
+ * the state that was published when it started.
+ *
+ * The copy still includes the map of all words, so an update that changes any channel
+ * costs time and garbage in proportion to the number of distinct words in the index, on
+ * top of the work for the changed channels. The postings of the other words are shared,
+ * not copied. Updates follow a refresh, not every keystroke, which keeps this cheap next
+ * to the refresh itself.
+ */
+public class SearchIndex {
+
+    private static final int TITLE = 4;           // Field flags of a posting
+    private static final int SUBTITLE = 2;
+    private static final int DESCRIPTION = 1;
+
+    private static final Locale SWEDISH = new Locale("sv", "SE");
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{Nd}]+");
+
+    // Common words that would match most programs, in folded form
+    private static final Set<String> STOPWORDS = Set.of(
+            "och", "i", "pa", "med", "en", "ett", "det", "som", "for", "av", "till", "om", "ar",
+            "den", "att", "de", "har", "fran", "vi", "du", "jag", "men", "sa", "nar", "kan", "ska",
+            "var", "hur", "vad", "mot", "ur", "sig", "sin", "sitt", "sina", "hos", "utan", "eller",
+            "under", "efter", "ocksa", "inte", "man", "dar", "nu", "vara", "blir");
+
+    private static final LatencyHistogram UPDATE_LATENCY = Metrics.histogram("search.update");
+    private static final LatencyHistogram QUERY_LATENCY = Metrics.histogram("search.query");
+
+    private volatile State state;   // The published index, never changed once published
+
+    /**
+     * Constructor to create an empty index.
+     */
+    public SearchIndex() {
+        this.state = new State(new TreeMap<>(), new HashMap<>());
+    }
+
+    /**
+     * Brings the index up to date with the given channels. Channels whose schedule is the
+     * same list as when they were indexed are kept, channels that are gone are removed.
+     * Concurrent updates run one at a time, while searches keep using the previous state
+     * until the update is published.
+     *
+     * @param current The channels, for example ApiParser.getChannelsMap().values().
+     */
+    public synchronized void update(Collection<Channel> current) {
+        long start = System.nanoTime();
+        State published = state;
+        State next = null;
+        Set<Integer> ids = new HashSet<>();
+        // Recurring titles and descriptions are pooled, so each is split only once per update
+        Map<String, String[]> words = new IdentityHashMap<>();
+        for (Channel channel : current) {
+            ids.add(channel.getId());
+            IndexedChannel indexed = published.channels.get(channel.getId());
+            List<Program> programs = channel.getProgrammes();
+            if (indexed != null && indexed.channel == channel && indexed.programs == programs) {
+                continue;
+            }
+            if (next == null) {
+                next = published.copy();
+            }
+            next.remove(channel.getId());
+            next.add(channel, programs, words);
+        }
+        for (Integer id : published.channels.keySet()) {
+            if (!ids.contains(id)) {
+                if (next == null) {
+                    next = published.copy();
+                }
+                next.remove(id);
+            }
+        }
+        if (next != null) {
+            next.copied = null;
+            state = next;
+        }
+        UPDATE_LATENCY.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Searches the index. Every word of the query must match a prefix of a word in the
+     * title, subtitle or description. Matches in the title rank above matches in the
+     * subtitle, which rank above matches in the description, and whole words rank above
+     * prefixes. Programs that have not ended come before those that have, and equal
+     * matches are sorted by start time.
+     *
+     * @param query The query as typed.
+     * @param limit The maximum number of results.
+     * @param now   The current time in epoch milliseconds, from the clock of the schedules.
+     * @return The results, best first.
+     */
+    public List<Result> search(String query, int limit, long now) {
+        long start = System.nanoTime();
+        State current = state;
+        List<String> tokens = queryTokens(query);
+        if (tokens.isEmpty() || limit <= 0) {
+            return new ArrayList<>();
+        }
+        // Per channel with matches: total score, number of query words matched and the best
+        // score of the current word, indexed by program
+        Map<Integer, int[][]> matches = new HashMap<>();
+        for (int k = 0; k < tokens.size(); k++) {
+            String token = tokens.get(k);
+            for (Map.Entry<String, Map<Integer, Postings>> term
+                    : current.terms.subMap(token, true, token + Character.MAX_VALUE, false).entrySet()) {
+                boolean whole = term.getKey().length() == token.length();
+                for (Map.Entry<Integer, Postings> posting : term.getValue().entrySet()) {
+                    int[][] match = k == 0
+                            ? matches.computeIfAbsent(posting.getKey(), id -> new int[3][current.channels.get(id).endTimes.length])
+                            : matches.get(posting.getKey());
+                    if (match == null) {
+                        continue;
+                    }
+                    int[] matched = match[1];
+                    int[] best = match[2];
+                    Postings postings = posting.getValue();
+                    for (int i = 0; i < postings.size; i++) {
+                        int program = postings.programs[i];
+                        // Only programs that matched every earlier word can still match the query
+                        if (matched[program] == k) {
+                            best[program] = Math.max(best[program], score(postings.fields[i], whole));
+                        }
+                    }
+                }
+            }
+            for (int[][] match : matches.values()) {
+                for (int program = 0; program < match[2].length; program++) {
+                    if (match[2][program] > 0) {
+                        match[0][program] += match[2][program];
+                        match[1][program]++;
+                        match[2][program] = 0;
+                    }
+                }
+            }
+        }
+
+        // Keep the best results in a heap with the worst of them on top
+        PriorityQueue<Result> best = new PriorityQueue<>(limit + 1, Comparator.reverseOrder());
+        for (Map.Entry<Integer, int[][]> entry : matches.entrySet()) {
+            IndexedChannel indexed = current.channels.get(entry.getKey());
+            int[] total = entry.getValue()[0];
+            int[] matched = entry.getValue()[1];
+            for (int program = 0; program < matched.length; program++) {
+                if (matched[program] == tokens.size()) {
+                    boolean ended = indexed.endTimes[program] <= now;
+                    long startTime = indexed.startTimes[program];
+                    if (best.size() < limit) {
+                        best.add(new Result(indexed, program, total[program], ended, startTime));
+                    } else if (best.peek().compareTo(total[program], ended, startTime) > 0) {
+                        best.poll();
+                        best.add(new Result(indexed, program, total[program], ended, startTime));
+                    }
+                }
+            }
+        }
+        List<Result> results = new ArrayList<>(best);
+        results.sort(null);
+        QUERY_LATENCY.record(System.nanoTime() - start);
+        return results;
+    }
+
+    /**
+     * Getter method to retrieve the number of distinct indexed words.
+     * @return The number of words.
+     */
+    public int termCount() {
+        return state.terms.size();
+    }
+
+    /**
+     * Splits text into lowercase words folded to their base letters, without stopwords.
+     *
+     * @param text The text, may be null.
+     * @return The words in order of appearance, with repetitions.
+     */
+    static List<String> tokenize(String text) {
+        List<String> result = new ArrayList<>();
+        for (String word : split(text)) {
+            if (!STOPWORDS.contains(word)) {
+                result.add(word);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Splits a query into words. Stopwords are dropped like in the index, except the last
+     * word while it is still being typed, since it may be the start of a longer word.
+     *
+     * @param query The query.
+     * @return The distinct words of the query.
+     */
+    private static List<String> queryTokens(String query) {
+        String[] words = split(query);
+        boolean typing = !query.isEmpty() && !Character.isWhitespace(query.charAt(query.length() - 1));
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < words.length; i++) {
+            boolean last = i == words.length - 1;
+            if ((!STOPWORDS.contains(words[i]) || (last && typing)) && !result.contains(words[i])) {
+                result.add(words[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Lowercases, folds and splits text into words.
+     *
+     * @param text The text, may be null.
+     * @return The words.
+     */
+    private static String[] split(String text) {
+        if (text == null || text.isEmpty()) {
+            return new String[0];
+        }
+        String folded = Normalizer.normalize(text.toLowerCase(SWEDISH), Normalizer.Form.NFD);
+        folded = COMBINING_MARKS.matcher(folded).replaceAll("");
+        String[] words = SEPARATORS.split(folded);
+        // A leading separator gives an empty first word
+        return words.length > 0 && words[0].isEmpty() ? Arrays.copyOfRange(words, 1, words.length) : words;
+    }
+
+    /**
+     * Calculates the score of a matching word.
+     *
+     * @param fields The fields the word occurs in.
+     * @param whole  Whether the query word is the whole word rather than a prefix.
+     * @return The score.
+     */
+    private static int score(int fields, boolean whole) {
+        int score = 0;
+        if ((fields & TITLE) != 0) {
+            score += 6;
+        }
+        if ((fields & SUBTITLE) != 0) {
+            score += 3;
+        }
+        if ((fields & DESCRIPTION) != 0) {
+            score += 1;
+        }
+        return whole ? score * 2 : score;
+    }
+
+    /**
+     * Adds the words of one field of a program to the postings of a channel.
+     *
+     * @param channelTerms The postings of the channel by word.
+     * @param words        Words of the strings already split during this update.
+     * @param text         The text of the field, may be null.
+     * @param program      The index of the program in the schedule.
+     * @param field        The field flag.
+     */
+    private static void addWords(Map<String, Postings> channelTerms, Map<String, String[]> words,
+                                 String text, int program, int field) {
+        if (text == null) {
+            return;
+        }
+        String[] split = words.computeIfAbsent(text, t -> tokenize(t).toArray(new String[0]));
+        for (String word : split) {
+            channelTerms.computeIfAbsent(word, key -> new Postings()).add(program, field);
+        }
+    }
+
+    /**
+     * A state of the index. A state is changed only while an update builds it and is never
+     * changed once it has been published.
+     */
+    private static class State {
+        private final TreeMap<String, Map<Integer, Postings>> terms;   // Word to postings per channel id
+        private final Map<Integer, IndexedChannel> channels;           // Indexed channels by id
+        private Set<String> copied;     // Words whose postings were copied for this state, null once published
+
+        private State(TreeMap<String, Map<Integer, Postings>> terms, Map<Integer, IndexedChannel> channels) {
+            this.terms = terms;
+            this.channels = channels;
+        }
+
+        /**
+         * Creates the state an update starts from. The postings of every word are still
+         * shared with this state and are copied by postingsOf before they are changed.
+         * The map of words itself is copied, which takes time linear in its size.
+         *
+         * @return The copy.
+         */
+        private State copy() {
+            State next = new State(new TreeMap<>(terms), new HashMap<>(channels));
+            next.copied = new HashSet<>();
+            return next;
+        }
+
+        /**
+         * Retrieves the postings of a word for changing, copying them the first time they are
+         * changed in this state so the published state is left as it is.
+         *
+         * @param word The word.
+         * @return The postings per channel id, created empty if the word is new.
+         */
+        private Map<Integer, Postings> postingsOf(String word) {
+            Map<Integer, Postings> postings = terms.get(word);
+            if (postings == null) {
+                postings = new HashMap<>();
+                copied.add(word);
+                terms.put(word, postings);
+            } else if (copied.add(word)) {
+                postings = new HashMap<>(postings);
+                terms.put(word, postings);
+            }
+            return postings;
+        }
+
+        /**
+         * Indexes the schedule of a channel.
+         *
+         * @param channel  The channel.
+         * @param programs The schedule of the channel.
+         * @param words    Words of the strings already split during this update.
+         */
+        private void add(Channel channel, List<Program> programs, Map<String, String[]> words) {
+            CompactSchedule compact = programs instanceof CompactSchedule ? (CompactSchedule) programs : null;
+            Map<String, Postings> channelTerms = new HashMap<>();
+            long[] startTimes = new long[programs.size()];
+            long[] endTimes = new long[programs.size()];
+            for (int i = 0; i < programs.size(); i++) {
+                if (compact != null) {
+                    startTimes[i] = compact.getStartTime(i);
+                    endTimes[i] = compact.getEndTime(i);
+                    addWords(channelTerms, words, compact.getTitle(i), i, TITLE);
+                    addWords(channelTerms, words, compact.getSubtitle(i), i, SUBTITLE);
+                    addWords(channelTerms, words, compact.getDescription(i), i, DESCRIPTION);
+                } else {
+                    Program program = programs.get(i);
+                    startTimes[i] = program.getStartTime();
+                    endTimes[i] = program.getEndTime();
+                    addWords(channelTerms, words, program.getTitle(), i, TITLE);
+                    addWords(channelTerms, words, program.getSubtitle(), i, SUBTITLE);
+                    addWords(channelTerms, words, program.getDescription(), i, DESCRIPTION);
+                }
+            }
+            for (Map.Entry<String, Postings> entry : channelTerms.entrySet()) {
+                postingsOf(entry.getKey()).put(channel.getId(), entry.getValue().trim());
+            }
+            channels.put(channel.getId(), new IndexedChannel(channel, programs, startTimes, endTimes, channelTerms.keySet()));
+        }
+
+        /**
+         * Removes a channel and its postings from the index.
+         *
+         * @param channelId The id of the channel.
+         */
+        private void remove(int channelId) {
+            IndexedChannel old = channels.remove(channelId);
+            if (old == null) {
+                return;
+            }
+            for (String word : old.words) {
+                Map<Integer, Postings> postings = postingsOf(word);
+                postings.remove(channelId);
+                if (postings.isEmpty()) {
+                    terms.remove(word);
+                }
+            }
+        }
+    }
+
+    /**
+     * A program found by a search.
+     */
+    public static class Result implements Comparable<Result> {
+        private final IndexedChannel indexed;     // The channel and schedule the program is in
+        private final int index;                  // The index of the program in the schedule
+        private final int score;                  // Higher is a better match
+        private final boolean ended;              // Whether the program had ended at the search
+        private final long startTime;             // Start time of the program
+
+        private Result(IndexedChannel indexed, int index, int score, boolean ended, long startTime) {
+            this.indexed = indexed;
+            this.index = index;
+            this.score = score;
+            this.ended = ended;
+            this.startTime = startTime;
+        }
+
+        /**
+         * Getter method to retrieve the channel of the program.
+         * @return The channel.
+         */
+        public Channel getChannel() {
+            return indexed.channel;
+        }
+
+        /**
+         * Getter method to retrieve the program. A program of a CompactSchedule is created
+         * on every call.
+         * @return The program.
+         */
+        public Program getProgram() {
+            return indexed.programs.get(index);
+        }
+
+        /**
+         * Getter method to retrieve the score of the match.
+         * @return The score, higher is better.
+         */
+        public int getScore() {
+            return score;
+        }
+
+        @Override
+        public int compareTo(Result other) {
+            return compareTo(other.score, other.ended, other.startTime);
+        }
+
+        /**
+         * Compares this result with a match that has no Result yet.
+         *
+         * @param otherScore The score of the match.
+         * @param otherEnded Whether the program of the match has ended.
+         * @param otherStart The start time of the program of the match.
+         * @return Negative if this result ranks first, positive if the match does.
+         */
+        private int compareTo(int otherScore, boolean otherEnded, long otherStart) {
+            if (score != otherScore) {
+                return Integer.compare(otherScore, score);
+            }
+            if (ended != otherEnded) {
+                return ended ? 1 : -1;
+            }
+            return Long.compare(startTime, otherStart);
+        }
+    }
+
+    /**
+     * A channel as it was indexed.
+     */
+    private static class IndexedChannel {
+        private final Channel channel;            // The channel
+        private final List<Program> programs;     // The schedule that was indexed
+        private final long[] startTimes;          // Start times of the programs
+        private final long[] endTimes;            // End times of the programs
+        private final Set<String> words;          // The words with postings for the channel
+
+        private IndexedChannel(Channel channel, List<Program> programs, long[] startTimes, long[] endTimes,
+                               Set<String> words) {
+            this.channel = channel;
+            this.programs = programs;
+            this.startTimes = startTimes;
+            this.endTimes = endTimes;
+            this.words = words;
+        }
+    }
+
+    /**
+     * The programs of one channel that contain a word, in schedule order, with the fields
+     * the word occurs in.
+     */
+    private static class Postings {
+        private int[] programs = new int[2];      // Indexes of the programs in the schedule
+        private int[] fields = new int[2];        // Field flags per program
+        private int size;
+
+        /**
+         * Adds an occurrence. Programs are added in schedule order, so a repeated program is
+         * always the last one.
+         *
+         * @param program The index of the program.
+         * @param field   The field flag.
+         */
+        private void add(int program, int field) {
+            if (size > 0 && programs[size - 1] == program) {
+                fields[size - 1] |= field;
+                return;
+            }
+            if (size == programs.length) {
+                programs = Arrays.copyOf(programs, size * 2);
+                fields = Arrays.copyOf(fields, size * 2);
+            }
+            programs[size] = program;
+            fields[size] = field;
+            size++;
+        }
+
+        /**
+         * Trims the arrays to the number of occurrences.
+         *
+         * @return This postings.
+         */
+        private Postings trim() {
+            programs = Arrays.copyOf(programs, size);
+            fields = Arrays.copyOf(fields, size);
+            return this;
+        }
+    }
+}
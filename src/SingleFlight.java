@@ -0,0 +1,174 @@
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Coalesces concurrent loads of the same key into one. The first caller for a key
+ * starts the load, and every caller that arrives while it is in flight gets the same
+ * result instead of starting a load of its own. Once the load completes the key is
+ * released, so a later caller starts a fresh load.
+ *
+ * Every caller gets its own future, so one caller cancelling does not fail the others.
+ * When all callers of a load have cancelled, the load is abandoned: the key is released,
+ * a load that has not started is skipped and a running one is interrupted.
+ *
+ * The loads started, the calls that joined a load in flight and the abandoned loads are
+ * counted in the metrics name.loads, name.shared and name.abandoned.
+ *
+ * @param <K> The type of the keys.
+ * @param <V> The type of the loaded values.
+ */
+public class SingleFlight<K, V> {
+
+    private final Map<K, Flight> inFlight;  // Loads not yet completed per key
+    private final Counter loads;            // Loads started
+    private final Counter shared;           // Calls that joined a load already in flight
+    private final Counter abandoned;        // Loads whose callers all cancelled
+
+    /**
+     * Constructor to create a SingleFlight with nothing in flight.
+     *
+     * @param name The prefix of the metrics, e.g. refresh.pages.
+     */
+    public SingleFlight(String name) {
+        inFlight = new ConcurrentHashMap<>();
+        loads = Metrics.counter(name + ".loads");
+        shared = Metrics.counter(name + ".shared");
+        abandoned = Metrics.counter(name + ".abandoned");
+    }
+
+    /**
+     * Loads the value of a key, or joins the load of it already in flight.
+     *
+     * @param key      The key to load.
+     * @param loader   Loads the value, run only if no load of the key is in flight.
+     * @param executor Runs the loader.
+     * @return A future of the value. Cancelling it does not affect other callers of the same
+     *         load, but once every caller has cancelled the load itself is cancelled.
+     */
+    public CompletableFuture<V> submit(K key, Callable<V> loader, Executor executor) {
+        while (true) {
+            Flight created = new Flight();
+            Flight existing = inFlight.putIfAbsent(key, created);
+            if (existing == null) {
+                loads.increment();
+                start(key, created, loader, executor);
+                return follow(key, created);
+            }
+            synchronized (existing) {
+                if (!existing.abandoned) {
+                    existing.waiting++;
+                    shared.increment();
+                    return follow(key, existing);
+                }
+            }
+            // Abandoned but not released yet, start a new load
+            inFlight.remove(key, existing);
+        }
+    }
+
+    /**
+     * Checks whether a load of a key is in flight.
+     *
+     * @param key The key.
+     * @return True if a load of the key has neither completed nor been abandoned.
+     */
+    public boolean isInFlight(K key) {
+        return inFlight.containsKey(key);
+    }
+
+    /**
+     * Hands the loader of a new flight to the executor.
+     *
+     * @param key      The key of the flight.
+     * @param flight   The flight.
+     * @param loader   Loads the value.
+     * @param executor Runs the loader.
+     */
+    private void start(K key, Flight flight, Callable<V> loader, Executor executor) {
+        try {
+            executor.execute(() -> {
+                synchronized (flight) {
+                    if (flight.abandoned) {
+                        return;
+                    }
+                    flight.runner = Thread.currentThread();
+                }
+                V value;
+                try {
+                    value = loader.call();
+                } catch (Throwable e) {
+                    inFlight.remove(key, flight);
+                    flight.result.completeExceptionally(e);
+                    return;
+                } finally {
+                    synchronized (flight) {
+                        flight.runner = null;
+                        if (flight.abandoned) {
+                            // The interrupt was meant for this load only
+                            Thread.interrupted();
+                        }
+                    }
+                }
+                // Released before completing so callers that see the result never join a finished load
+                inFlight.remove(key, flight);
+                flight.result.complete(value);
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key, flight);
+            flight.result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Creates the future of one caller of a flight, which releases the caller's interest
+     * in the flight when cancelled.
+     *
+     * @param key    The key of the flight.
+     * @param flight The flight.
+     * @return The future of the caller.
+     */
+    private CompletableFuture<V> follow(K key, Flight flight) {
+        CompletableFuture<V> future = flight.result.copy();
+        future.whenComplete((value, error) -> {
+            if (future.isCancelled()) {
+                release(key, flight);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Releases one caller of a flight, abandoning the flight if it was the last.
+     *
+     * @param key    The key of the flight.
+     * @param flight The flight.
+     */
+    private void release(K key, Flight flight) {
+        synchronized (flight) {
+            if (--flight.waiting > 0 || flight.result.isDone()) {
+                return;
+            }
+            flight.abandoned = true;
+            if (flight.runner != null) {
+                flight.runner.interrupt();
+            }
+        }
+        abandoned.increment();
+        inFlight.remove(key, flight);
+        flight.result.cancel(false);
+    }
+
+    /**
+     * One load and the callers waiting for it.
+     */
+    private class Flight {
+        private final CompletableFuture<V> result = new CompletableFuture<>();   // The outcome of the load
+        private int waiting = 1;              // Callers that have not cancelled, guarded by this
+        private boolean abandoned;            // Whether every caller cancelled, guarded by this
+        private Thread runner;                // Thread running the loader, guarded by this
+    }
+}
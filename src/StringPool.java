@@ -0,0 +1,60 @@
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Deduplicates strings that recur across schedules, such as the titles and descriptions
+ * of shows broadcast every day. Equal strings are replaced by one shared instance. The
+ * pool only holds its strings weakly, so strings no schedule refers to any more can be
+ * collected.
+ */
+public class StringPool {
+
+    private static final StringPool SHARED = new StringPool();
+
+    private final Map<String, WeakReference<String>> strings;   // Each pooled string mapped to itself
+
+    /**
+     * Constructor to create an empty StringPool.
+     */
+    public StringPool() {
+        this.strings = new WeakHashMap<>();
+    }
+
+    /**
+     * Retrieves the pool shared by the parsers and the snapshot, so a schedule loaded from
+     * the snapshot and the same schedule downloaded later share their strings.
+     *
+     * @return The shared pool.
+     */
+    public static StringPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Retrieves the pooled instance of a string, adding the string if it is new.
+     *
+     * @param value The string, or null.
+     * @return An equal string shared with earlier callers, or null if the value is null.
+     */
+    public synchronized String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        WeakReference<String> reference = strings.get(value);
+        String pooled = reference != null ? reference.get() : null;
+        if (pooled == null) {
+            strings.put(value, new WeakReference<>(value));
+            return value;
+        }
+        return pooled;
+    }
+
+    /**
+     * Getter method to retrieve the number of pooled strings.
+     * @return The number of strings, including some that may be about to be collected.
+     */
+    public synchronized int size() {
+        return strings.size();
+    }
+}
@@ -0,0 +1,102 @@
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Converts between the API's UTC timestamps, epoch milliseconds and display strings.
+ * Timestamps are parsed once when a schedule is ingested and kept as primitives.
+ */
+public class TimeFormat {
+
+    // Shown as UTC wall-clock time, which is how the schedule table has always displayed it
+    private static final DateTimeFormatter DISPLAY_FORMAT =
+            DateTimeFormatter.ofPattern("MMM dd, HH:mm").withZone(ZoneOffset.UTC);
+
+    private TimeFormat() {
+    }
+
+    /**
+     * Parses an API timestamp such as 2024-01-31T05:00:00Z into epoch milliseconds.
+     * The fixed layout used by the API is parsed without allocating; anything else
+     * falls back to java.time.
+     *
+     * @param text The timestamp.
+     * @return The time in milliseconds since the epoch.
+     * @throws java.time.format.DateTimeParseException If the timestamp cannot be parsed.
+     */
+    public static long parseUtcMillis(String text) {
+        if (text.length() == 20 && text.charAt(4) == '-' && text.charAt(7) == '-' && text.charAt(10) == 'T'
+                && text.charAt(13) == ':' && text.charAt(16) == ':' && text.charAt(19) == 'Z') {
+            int year = digits(text, 0, 4);
+            int month = digits(text, 5, 2);
+            int day = digits(text, 8, 2);
+            int hour = digits(text, 11, 2);
+            int minute = digits(text, 14, 2);
+            int second = digits(text, 17, 2);
+            if (year >= 0 && month >= 1 && month <= 12 && day >= 1 && day <= 31
+                    && hour >= 0 && hour <= 23 && minute >= 0 && minute <= 59 && second >= 0 && second <= 59) {
+                long seconds = daysFromCivil(year, month, day) * 86_400L + hour * 3_600L + minute * 60L + second;
+                return seconds * 1000L;
+            }
+        }
+        return OffsetDateTime.parse(text).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Formats a time for the schedule table.
+     *
+     * @param millis The time in milliseconds since the epoch.
+     * @return The formatted time, e.g. "Jan 31, 05:00".
+     */
+    public static String formatDisplay(long millis) {
+        return DISPLAY_FORMAT.format(Instant.ofEpochMilli(millis));
+    }
+
+    /**
+     * Formats a time the way the API writes it, the inverse of parseUtcMillis.
+     *
+     * @param millis The time in milliseconds since the epoch.
+     * @return The timestamp, e.g. "2024-01-31T05:00:00Z".
+     */
+    public static String formatUtc(long millis) {
+        return Instant.ofEpochMilli(millis).toString();
+    }
+
+    /**
+     * Reads a run of decimal digits.
+     *
+     * @param text   The text to read from.
+     * @param start  The index of the first digit.
+     * @param length The number of digits.
+     * @return The value, or -1 if a character is not a digit.
+     */
+    private static int digits(String text, int start, int length) {
+        int value = 0;
+        for (int i = start; i < start + length; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Counts the days from 1970-01-01 to the given date in the proleptic Gregorian calendar.
+     *
+     * @param year  The year.
+     * @param month The month, 1-12.
+     * @param day   The day of the month.
+     * @return The number of days since the epoch.
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = Math.floorDiv(year, 400);
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153L * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146_097 + dayOfEra - 719_468;
+    }
+}
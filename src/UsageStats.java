@@ -0,0 +1,90 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Counts how often each channel is selected, persisted between runs as a
+ * properties file mapping channel id to count.
+ */
+public class UsageStats {
+
+    private final File file;                      // Where the counts are saved
+    private final Map<Integer, Integer> counts;   // Selections per channel id
+
+    /**
+     * Constructor to create UsageStats from the counts saved in the application directory.
+     */
+    public UsageStats() {
+        this(AppDirectory.getFile("usage.properties"));
+    }
+
+    /**
+     * Constructor to create UsageStats from the counts saved in a file.
+     *
+     * @param file The file with the counts; it need not exist.
+     */
+    public UsageStats(File file) {
+        this.file = file;
+        this.counts = new HashMap<>();
+        load();
+    }
+
+    /**
+     * Reads the saved counts. A missing or broken file starts from zero.
+     */
+    private void load() {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        } catch (IOException e) {
+            return;
+        }
+        for (String name : properties.stringPropertyNames()) {
+            try {
+                counts.put(Integer.parseInt(name), Integer.parseInt(properties.getProperty(name)));
+            } catch (NumberFormatException e) {
+                // Skip entries that are not id=count
+            }
+        }
+    }
+
+    /**
+     * Records that a channel was selected.
+     *
+     * @param channelId The id of the channel.
+     */
+    public synchronized void record(int channelId) {
+        counts.merge(channelId, 1, Integer::sum);
+    }
+
+    /**
+     * Getter method to retrieve how often a channel has been selected.
+     *
+     * @param channelId The id of the channel.
+     * @return The number of selections.
+     */
+    public synchronized int getCount(int channelId) {
+        return counts.getOrDefault(channelId, 0);
+    }
+
+    /**
+     * Saves the counts for the next start.
+     */
+    public synchronized void save() {
+        Properties properties = new Properties();
+        for (Map.Entry<Integer, Integer> entry : counts.entrySet()) {
+            properties.setProperty(String.valueOf(entry.getKey()), String.valueOf(entry.getValue()));
+        }
+        try (OutputStream out = new FileOutputStream(file)) {
+            properties.store(out, "RadioPlan channel selections");
+        } catch (IOException e) {
+            // The counts only order the prefetch, losing them is harmless
+        }
+    }
+}